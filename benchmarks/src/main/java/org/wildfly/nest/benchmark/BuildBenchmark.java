@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Measures building a nest of the generated corpus.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BuildBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File workDir;
+    private File contentDir;
+    private int entries;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        workDir = Files.createTempDirectory("nest-build-bench").toFile();
+        contentDir = IoUtils.mkdir(workDir, "content");
+        entries = corpus.generateIn(contentDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Benchmark
+    public File build(EntryCounters counters) throws NestException {
+        final File nest = corpus.addContent(Nest.create(), contentDir)
+            .parallel(threads)
+            .build(workDir, "nest.zip");
+        counters.entries += entries;
+        return nest;
+    }
+}
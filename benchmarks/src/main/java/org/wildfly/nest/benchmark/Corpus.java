@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.expand.NestExpandTask;
+import org.wildfly.nest.test.util.DistributionCorpus;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * The shapes of the content the benchmarks build and expand nests of.
+ * The content is generated from a fixed seed, so every run of a benchmark
+ * works with the same files.
+ *
+ * @author Alexey Loubyansky
+ */
+public enum Corpus {
+
+    /** ten thousand small text files in a hundred directories */
+    TINY_FILES {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for(int d = 0; d < 100; ++d) {
+                final File subdir = IoUtils.mkdir(dir, "dir" + d);
+                for(int f = 0; f < 100; ++f) {
+                    writeText(new File(subdir, "file" + f + ".txt"), 64 + random.nextInt(2048), random);
+                }
+            }
+        }
+    },
+
+    /** a few large files, half of them incompressible */
+    HUGE_FILES {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for(int f = 0; f < 4; ++f) {
+                final File file = new File(dir, "huge" + f + (f % 2 == 0 ? ".bin" : ".txt"));
+                if(f % 2 == 0) {
+                    writeBinary(file, 32 << 20, random);
+                } else {
+                    writeText(file, 32 << 20, random);
+                }
+            }
+        }
+    },
+
+    /** long chains of nested directories with a few files at every level */
+    DEEP_TREE {
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for(int chain = 0; chain < 32; ++chain) {
+                File level = IoUtils.mkdir(dir, "chain" + chain);
+                for(int depth = 0; depth < 32; ++depth) {
+                    level = IoUtils.mkdir(level, "level" + depth);
+                    for(int f = 0; f < 4; ++f) {
+                        writeText(new File(level, "file" + f + ".txt"), 64 + random.nextInt(1024), random);
+                    }
+                }
+            }
+        }
+    },
+
+    /**
+     * modules added to the nest as named source locations under named
+     * nest locations, which are linked to their own expand paths
+     */
+    LINKED_LOCATIONS {
+
+        private static final int MODULES = 512;
+        private static final int GROUPS = 32;
+
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            for(int m = 0; m < MODULES; ++m) {
+                final File module = IoUtils.mkdir(dir, "modules", "module" + m);
+                writeText(new File(module, "module.xml"), 256 + random.nextInt(1024), random);
+                for(int f = 0; f < 7; ++f) {
+                    writeBinary(new File(module, "lib" + f + ".jar"), 512 + random.nextInt(8192), random);
+                }
+            }
+        }
+
+        @Override
+        NestBuildTask addContent(NestBuildTask task, File dir) throws NestException {
+            task.nameSourceLocation("HOME")
+                .nameSourceLocation("MODULES", "HOME", "modules")
+                .nameNestLocation("NEST_MODULES", "modules");
+            for(int g = 0; g < GROUPS; ++g) {
+                task.nameNestLocation("GROUP" + g, "NEST_MODULES", "group" + g);
+            }
+            for(int m = 0; m < MODULES; ++m) {
+                task.nameSourceLocation("MODULE" + m, "MODULES", "module" + m)
+                    .addLocation("MODULE" + m).underLocation("GROUP" + m % GROUPS);
+            }
+            return task.linkSourceLocation("HOME", dir.getAbsolutePath());
+        }
+
+        @Override
+        NestExpandTask linkContent(NestExpandTask task) throws NestException {
+            for(int g = 0; g < GROUPS; ++g) {
+                task.nameNestLocation("GROUP" + g, "modules/group" + g + "/")
+                    .linkNestLocation("GROUP" + g).toPath("linked/group" + g);
+            }
+            return task;
+        }
+    },
+
+    /**
+     * a tree shaped like an application server distribution,
+     * see {@link DistributionCorpus}
+     */
+    DISTRIBUTION {
+
+        private final DistributionCorpus distribution = DistributionCorpus.seed(SEED);
+
+        @Override
+        void generate(File dir, Random random) throws IOException {
+            distribution.generate(dir);
+        }
+
+        @Override
+        NestBuildTask addContent(NestBuildTask task, File dir) throws NestException {
+            return distribution.addTo(task, dir);
+        }
+    };
+
+    private static final String[] WORDS = {
+        "<module", "name=", "\"org.wildfly.nest\"", "xmlns=", "<resources>", "<resource-root", "path=",
+        "</resources>", "<dependencies>", "<module", "export=\"true\"", "/>", "</dependencies>", "</module>",
+        "key", "value", "=", "\n", "    "
+    };
+
+    private static final long SEED = 20161018L;
+
+    /**
+     * Generates the content in the directory.
+     *
+     * @param dir  directory to generate the content in
+     * @return  the number of the files and the directories generated
+     * @throws IOException  in case of a failure
+     */
+    public int generateIn(File dir) throws IOException {
+        generate(dir, new Random(SEED + ordinal()));
+        return countEntries(dir) - 1;
+    }
+
+    /**
+     * Adds the content generated in the directory to the build task.
+     *
+     * @param task  build task
+     * @param dir  the directory the content was generated in
+     * @return  the build task
+     * @throws NestException  in case of a failure
+     */
+    NestBuildTask addContent(NestBuildTask task, File dir) throws NestException {
+        for(File child : dir.listFiles()) {
+            task.add(child.getAbsolutePath());
+        }
+        return task;
+    }
+
+    /**
+     * Links the content of the nest to the expand paths.
+     *
+     * @param task  expand task
+     * @return  the expand task
+     * @throws NestException  in case of a failure
+     */
+    NestExpandTask linkContent(NestExpandTask task) throws NestException {
+        return task;
+    }
+
+    abstract void generate(File dir, Random random) throws IOException;
+
+    private static int countEntries(File file) {
+        int count = 1;
+        final File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                count += countEntries(child);
+            }
+        }
+        return count;
+    }
+
+    private static void writeText(File file, int size, Random random) throws IOException {
+        final StringBuilder text = new StringBuilder(size + 32);
+        while(text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(size);
+        write(file, text.toString().getBytes("UTF-8"));
+    }
+
+    private static void writeBinary(File file, int size, Random random) throws IOException {
+        final byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        write(file, bytes);
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(bytes);
+            os.close();
+        } finally {
+            IoUtils.safeClose(os);
+        }
+    }
+}
@@ -23,9 +23,12 @@
 package org.wildfly.nest;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 
 import org.wildfly.nest.build.NestBuildTask;
 import org.wildfly.nest.expand.NestExpandTask;
+import org.wildfly.nest.expand.NestHandle;
 
 /**
  *
@@ -53,4 +56,44 @@ public class Nest {
     public static NestExpandTask open(File nestFile) {
         return NestExpandTask.FACTORY.create(nestFile);
     }
+
+    /**
+     * Returns a new instance of a builder which can be used to expand
+     * a nest while it is being read from the stream, e.g. while it is being
+     * downloaded. The nest can be expanded only once and the stream is
+     * not closed when the nest has been expanded.
+     * The content is verified against the content manifest of the nest
+     * only after all the entries have been expanded since the manifest
+     * is stored after the entries.
+     *
+     * @param nestStream  the stream of the nest
+     * @return  builder to expand the nest
+     */
+    public static NestExpandTask open(InputStream nestStream) {
+        return NestExpandTask.FACTORY.create(nestStream);
+    }
+
+    /**
+     * Same as {@link #open(InputStream)} for a channel.
+     *
+     * @param nestChannel  the channel of the nest
+     * @return  builder to expand the nest
+     */
+    public static NestExpandTask open(ReadableByteChannel nestChannel) {
+        return NestExpandTask.FACTORY.create(nestChannel);
+    }
+
+    /**
+     * Opens an existing nest so that it could be expanded multiple times,
+     * possibly concurrently, reading its index and attachments only once.
+     * The handle should be closed when the nest is not going to be
+     * expanded anymore.
+     *
+     * @param nestFile  absolute path to the existing nest
+     * @return  opened nest
+     * @throws NestException  in case the nest could not be opened
+     */
+    public static NestHandle openHandle(File nestFile) throws NestException {
+        return NestHandle.FACTORY.open(nestFile);
+    }
 }
@@ -34,4 +34,12 @@ public interface NestContext {
     Collection<String> getNestLocationNames();
 
     EntryLocation getNestLocation(String name);
+
+    /**
+     * The listener the build or expand events should be reported to
+     * or null if they should not be traced.
+     *
+     * @return  trace listener or null
+     */
+    NestTraceListener getTraceListener();
  }
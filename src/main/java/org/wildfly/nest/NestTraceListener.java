@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest;
+
+/**
+ * Receives the events of building and expanding a nest, e.g. for debugging.
+ * The builders and the expanders look the listener up once and report
+ * nothing when it is not set, so tracing costs nothing when it is disabled.
+ *
+ * <p>The events are reported as their parts, the listener builds
+ * the message, if it needs one. The listener may be called from
+ * different threads but not concurrently within a single build or expansion.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface NestTraceListener {
+
+    /**
+     * Reports an event.
+     *
+     * @param source  the component reporting the event, e.g. the id
+     *                of an attachment handler
+     * @param event  what happened, e.g. {@code "read location name"}
+     * @param subject  what the event is about, e.g. the location name,
+     *                 may be null
+     */
+    void trace(String source, String event, Object subject);
+}
@@ -25,6 +25,9 @@ package org.wildfly.nest.build;
 import java.io.File;
 
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
+import org.wildfly.nest.zip.AttachmentEntryWriter;
+import org.wildfly.nest.zip.AttachmentOutput;
 import org.wildfly.nest.zip.EntryAttachments;
 import org.wildfly.nest.zip.NestAttachments;
 
@@ -34,26 +37,53 @@ import org.wildfly.nest.zip.NestAttachments;
  */
 public abstract class AbstractNestBuilder implements NestBuilder {
 
+    private static final String TRACE_SOURCE = "builder";
+
+    /** reused for the attachments of all the entries, which are written on the calling thread */
+    private final AttachmentOutput attachmentOutput = new AttachmentOutput();
+    /** looked up once per build, null unless the build is traced */
+    private NestTraceListener trace;
+
     public File build(NestBuildContext ctx) throws NestException {
         final File nestFile = ctx.getNestFile();
-        if (nestFile.exists()) {
+        if (nestFile != null && nestFile.exists()) {
             if (nestFile.isDirectory()) {
                 throw new NestException("Nest file points a directory " + nestFile.getAbsolutePath());
             }
             nestFile.delete();
         }
 
+        trace = ctx.getTraceListener();
         try {
+            if(trace != null) {
+                trace.trace(TRACE_SOURCE, "build", nestFile);
+            }
             prepareToBuild(ctx);
-            final byte[] bytes = NestAttachments.DEFAULT.write(ctx);
+            final byte[] bytes = NestAttachments.DEFAULT.write(ctx, getAttachmentEntryWriter());
             if(bytes != null) {
+                if(trace != null) {
+                    trace.trace(TRACE_SOURCE, "nest attachments", bytes.length);
+                }
                 addNestAttachments(ctx, bytes);
             }
             for (NestEntrySource entry : ctx.getEntries()) {
                 buildEntry(ctx, entry);
             }
+            completeEntries(ctx);
+            final byte[] trailingBytes = NestAttachments.TRAILING.write(ctx);
+            if(trailingBytes != null) {
+                if(trace != null) {
+                    trace.trace(TRACE_SOURCE, "trailing attachments", trailingBytes.length);
+                }
+                addTrailingAttachments(ctx, trailingBytes);
+            }
+            completeBuild(ctx);
+            if(trace != null) {
+                trace.trace(TRACE_SOURCE, "built", nestFile);
+            }
             return nestFile;
         } finally {
+            trace = null;
             tidyUpAfterBuild(ctx);
         }
     }
@@ -61,18 +91,59 @@ public abstract class AbstractNestBuilder implements NestBuilder {
     protected void prepareToBuild(NestBuildContext ctx) throws NestException {
     }
 
+    /**
+     * The writer storing the attachments too long for the entry they belong
+     * to in dedicated entries or null if the builder stores all the
+     * attachments with their entries.
+     *
+     * @return  attachment entry writer or null
+     */
+    protected AttachmentEntryWriter getAttachmentEntryWriter() {
+        return null;
+    }
+
+    /**
+     * Called after all the entries have been built, before the trailing
+     * attachments are written. Implementations that process the entries
+     * asynchronously must complete the processing here.
+     *
+     * @param ctx  build context
+     * @throws NestException  in case of a failure
+     */
+    protected void completeEntries(NestBuildContext ctx) throws NestException {
+    }
+
+    /**
+     * Called after all the entries and the trailing attachments have been
+     * built successfully.
+     *
+     * @param ctx  build context
+     * @throws NestException  in case of a failure
+     */
+    protected void completeBuild(NestBuildContext ctx) throws NestException {
+    }
+
     protected void tidyUpAfterBuild(NestBuildContext ctx) throws NestException {
     }
 
     protected void addNestAttachments(NestBuildContext ctx, byte[] attachments) throws NestException {
     }
 
+    protected void addTrailingAttachments(NestBuildContext ctx, byte[] attachments) throws NestException {
+    }
+
     protected void buildEntry(NestBuildContext ctx, NestEntrySource entry) throws NestException {
 
+        if (trace != null) {
+            trace.trace(TRACE_SOURCE, "entry", entry.getNestEntry().getNestLocation());
+        }
         beginEntry(ctx, entry);
 
-        final byte[] bytes = EntryAttachments.DEFAULT.write(ctx, entry);
+        final byte[] bytes = EntryAttachments.DEFAULT.write(ctx, entry, attachmentOutput, getAttachmentEntryWriter());
         if (bytes != null) {
+            if (trace != null) {
+                trace.trace(TRACE_SOURCE, "entry attachments", bytes.length);
+            }
             addEntryAttachments(ctx, entry, bytes);
         }
 
@@ -0,0 +1,321 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.wildfly.nest.util.BufferPool;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Decides whether the content of a file should be compressed in the nest
+ * or stored as it is. Storing the content that is already compressed
+ * (archives, images, etc) saves the time spent on deflating it when
+ * the nest is built and on inflating it when the nest is expanded.
+ * Implementations must be thread-safe since the files may be added
+ * to the nest by multiple threads.
+ *
+ * @author Alexey Loubyansky
+ */
+public abstract class CompressionPolicy {
+
+    /** all the files are compressed */
+    public static final CompressionPolicy DEFLATE = new CompressionPolicy() {
+        @Override
+        public boolean isStored(File file) {
+            return false;
+        }
+    };
+
+    /** none of the files is compressed */
+    public static final CompressionPolicy STORE = new CompressionPolicy() {
+        @Override
+        public boolean isStored(File file) {
+            return true;
+        }
+    };
+
+    /** extensions of the common already compressed formats */
+    public static final Set<String> COMPRESSED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "jar", "war", "ear", "rar", "sar", "zip", "gz", "tgz", "bz2", "xz", "7z", "zst",
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4")));
+
+    /**
+     * Stores the files with the specified extensions, compresses the rest.
+     * The extensions are compared ignoring the case.
+     *
+     * @param extensions  extensions of the files that should be stored, without the dot
+     * @return  compression policy
+     */
+    public static CompressionPolicy storeExtensions(String... extensions) {
+        if(extensions == null) {
+            throw new IllegalArgumentException("extensions is null");
+        }
+        return storeExtensions(Arrays.asList(extensions));
+    }
+
+    /**
+     * Stores the files with the specified extensions, compresses the rest.
+     * The extensions are compared ignoring the case.
+     *
+     * @param extensions  extensions of the files that should be stored, without the dot
+     * @return  compression policy
+     */
+    public static CompressionPolicy storeExtensions(Iterable<String> extensions) {
+        if(extensions == null) {
+            throw new IllegalArgumentException("extensions is null");
+        }
+        final Set<String> set = new HashSet<String>();
+        for(String extension : extensions) {
+            set.add(extension.toLowerCase(Locale.ENGLISH));
+        }
+        return new CompressionPolicy() {
+            @Override
+            public boolean isStored(File file) {
+                final String name = file.getName();
+                final int dot = name.lastIndexOf('.');
+                return dot >= 0 && set.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+            }
+        };
+    }
+
+    /**
+     * Stores the files that start with the magic number of one of the common
+     * compressed formats (ZIP, GZIP, BZIP2, XZ, 7z, Zstandard, PNG, JPEG, GIF),
+     * compresses the rest.
+     *
+     * @return  compression policy
+     */
+    public static CompressionPolicy storeCompressedContent() {
+        return MagicNumberPolicy.INSTANCE;
+    }
+
+    /**
+     * Same as {@link #adaptive(int, double)} with the 64 KB sample
+     * and the maximum ratio of 0.9.
+     *
+     * @return  compression policy
+     */
+    public static CompressionPolicy adaptive() {
+        return adaptive(65536, 0.9);
+    }
+
+    /**
+     * Compresses a sample from the beginning of each file and stores the file
+     * if the compressed sample is larger than the specified ratio of its
+     * original size.
+     *
+     * @param sampleSize  the number of bytes to compress
+     * @param maxRatio  the maximum ratio of the compressed to the original size
+     *                  for which the file is still compressed
+     * @return  compression policy
+     */
+    public static CompressionPolicy adaptive(int sampleSize, double maxRatio) {
+        if(sampleSize < 1) {
+            throw new IllegalArgumentException("The sample size must be positive: " + sampleSize);
+        }
+        if(maxRatio <= 0) {
+            throw new IllegalArgumentException("The ratio must be positive: " + maxRatio);
+        }
+        return new AdaptivePolicy(sampleSize, maxRatio);
+    }
+
+    /**
+     * Stores a file if any of the policies says it should be stored.
+     *
+     * @param policies  policies to consult
+     * @return  compression policy
+     */
+    public static CompressionPolicy any(final CompressionPolicy... policies) {
+        if(policies == null) {
+            throw new IllegalArgumentException("policies is null");
+        }
+        return new CompressionPolicy() {
+            @Override
+            public boolean isStored(File file) throws IOException {
+                for(CompressionPolicy policy : policies) {
+                    if(policy.isStored(file)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public boolean isStored(File file, long size) throws IOException {
+                for(CompressionPolicy policy : policies) {
+                    if(policy.isStored(file, size)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Whether the file should be stored in the nest as it is.
+     *
+     * @param file  the file added to the nest
+     * @return  true if the file should be stored, false if it should be compressed
+     * @throws IOException  in case the file could not be read
+     */
+    public abstract boolean isStored(File file) throws IOException;
+
+    /**
+     * Whether the file of the known size should be stored in the nest as it is.
+     * The size is the one the file had when it was found, the policies that
+     * need it should not ask the file system for it again.
+     *
+     * @param file  the file added to the nest
+     * @param size  the size of the file
+     * @return  true if the file should be stored, false if it should be compressed
+     * @throws IOException  in case the file could not be read
+     */
+    public boolean isStored(File file, long size) throws IOException {
+        return isStored(file);
+    }
+
+    private static int readSample(File file, byte[] buf) throws IOException {
+        return readSample(file, buf, buf.length);
+    }
+
+    private static int readSample(File file, byte[] buf, int length) throws IOException {
+        final InputStream is = new FileInputStream(file);
+        try {
+            int total = 0;
+            int read;
+            while (total < length && (read = is.read(buf, total, length - total)) != -1) {
+                total += read;
+            }
+            return total;
+        } finally {
+            IoUtils.safeClose(is);
+        }
+    }
+
+    private static class MagicNumberPolicy extends CompressionPolicy {
+
+        static final MagicNumberPolicy INSTANCE = new MagicNumberPolicy();
+
+        private static final byte[][] MAGIC_NUMBERS = new byte[][] {
+            {0x50, 0x4b, 0x03, 0x04},                                  // ZIP
+            {0x50, 0x4b, 0x05, 0x06},                                  // empty ZIP
+            {0x1f, (byte) 0x8b},                                       // GZIP
+            {0x42, 0x5a, 0x68},                                        // BZIP2
+            {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00},               // XZ
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},        // 7z
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},                    // Zstandard
+            {(byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a, 0x0a},   // PNG
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},                   // JPEG
+            {0x47, 0x49, 0x46, 0x38}                                   // GIF
+        };
+        private static final int MAX_LENGTH = 8;
+
+        @Override
+        public boolean isStored(File file) throws IOException {
+            final byte[] header = new byte[MAX_LENGTH];
+            final int length = readSample(file, header);
+            for(byte[] magic : MAGIC_NUMBERS) {
+                if(startsWith(header, length, magic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+            if(length < prefix.length) {
+                return false;
+            }
+            for(int i = 0; i < prefix.length; ++i) {
+                if(bytes[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class AdaptivePolicy extends CompressionPolicy {
+
+        /** the deflaters are reset and reused by the threads adding the files */
+        private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+        };
+
+        private final int sampleSize;
+        private final double maxRatio;
+
+        AdaptivePolicy(int sampleSize, double maxRatio) {
+            this.sampleSize = sampleSize;
+            this.maxRatio = maxRatio;
+        }
+
+        @Override
+        public boolean isStored(File file) throws IOException {
+            return isStored(file, file.length());
+        }
+
+        @Override
+        public boolean isStored(File file, long size) throws IOException {
+            final int sampleLength = (int) Math.min(sampleSize, size);
+            if(sampleLength == 0) {
+                return false;
+            }
+            final BufferPool buffers = BufferPool.DEFAULT;
+            final byte[] sample = sampleLength <= buffers.getBufferSize() ? buffers.getArray() : new byte[sampleLength];
+            final byte[] buf = buffers.getArray();
+            final Deflater deflater = DEFLATER.get();
+            try {
+                final int length = readSample(file, sample, sampleLength);
+                if(length == 0) {
+                    return false;
+                }
+                deflater.setInput(sample, 0, length);
+                deflater.finish();
+                long compressed = 0;
+                while(!deflater.finished()) {
+                    compressed += deflater.deflate(buf);
+                }
+                return compressed > length * maxRatio;
+            } finally {
+                deflater.reset();
+                buffers.release(sample);
+                buffers.release(buf);
+            }
+        }
+    }
+}
@@ -23,11 +23,14 @@
 package org.wildfly.nest.build;
 
 import java.io.File;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 import org.wildfly.nest.EntryLocation;
 import org.wildfly.nest.NestContext;
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.StringTable;
 
 /**
  *
@@ -44,9 +47,72 @@ public interface NestBuildContext extends NestContext {
     List<NestEntrySource> getEntries();
 
     /**
-     * Target file to save the built nest to.
+     * Target file to save the built nest to or null if the nest is
+     * written to {@link #getNestChannel()}.
      *
-     * @return  target file to save the built nest to
+     * @return  target file to save the built nest to or null
      */
     File getNestFile();
+
+    /**
+     * Target channel to write the built nest to or null if the nest is
+     * saved to {@link #getNestFile()}. The builder must not close the channel.
+     *
+     * @return  target channel to write the built nest to or null
+     */
+    WritableByteChannel getNestChannel();
+
+    /**
+     * The number of threads the entries should be compressed with.
+     *
+     * @return  the number of threads to compress the entries with
+     */
+    int getThreads();
+
+    /**
+     * The manifest the digests of the content of the file entries should be
+     * added to or null if the nest should not include the content manifest.
+     *
+     * @return  content manifest or null
+     */
+    ContentManifest getContentManifest();
+
+    /**
+     * The strings shared by the entry attachments or null if the entry
+     * attachments should be written in the original format.
+     *
+     * @return  string table or null
+     */
+    StringTable getStringTable();
+
+    /**
+     * The policy deciding which files are compressed in the nest.
+     *
+     * @return  compression policy
+     */
+    CompressionPolicy getCompressionPolicy();
+
+    /**
+     * The previously built nest whose compressed data should be reused
+     * for the unchanged files or null if the nest should be built from scratch.
+     *
+     * @return  previously built nest or null
+     */
+    File getPreviousNest();
+
+    /**
+     * Whether the CRC-32 of the content of a file should be compared to the one
+     * of the entry in the previous nest before its data is reused.
+     *
+     * @return  whether the CRC-32 of the content should be compared
+     */
+    boolean isCheckCrc();
+
+    /**
+     * Whether the content shared by multiple files should be stored
+     * in the nest only once.
+     *
+     * @return  whether the nest should be deduplicated
+     */
+    boolean isDeduplicate();
 }
@@ -23,8 +23,11 @@
 package org.wildfly.nest.build;
 
 import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
 
 
 /**
@@ -141,6 +144,88 @@ public interface NestBuildTask {
      */
     EntryUnderBuilder addLocation(String srcLocationName, String relativePath);
 
+    /**
+     * Sets the number of threads used to compress the entries.
+     * The entries are compressed by the worker threads independently
+     * and written to the nest in the order they were added, so the content
+     * of the nest does not depend on the number of threads.
+     * The default is one, i.e. the entries are compressed by the calling thread.
+     *
+     * @param threads  the number of threads to compress the entries with
+     * @return  nest builder
+     */
+    NestBuildTask parallel(int threads);
+
+    /**
+     * Requests the nest to include the manifest of the digests of the file
+     * entries, calculated using the specified algorithm while the entries
+     * are read. The manifest allows the content to be verified when the
+     * nest is expanded.
+     *
+     * @param digestAlgorithm  digest algorithm, e.g. SHA-1
+     * @return  nest builder
+     */
+    NestBuildTask contentManifest(String digestAlgorithm);
+
+    /**
+     * Sets the policy deciding which files are compressed in the nest
+     * and which are stored as they are.
+     * The default is {@link CompressionPolicy#DEFLATE}, i.e. all the files
+     * are compressed.
+     *
+     * @param policy  compression policy
+     * @return  nest builder
+     */
+    NestBuildTask compression(CompressionPolicy policy);
+
+    /**
+     * Builds the nest incrementally reusing the compressed data of the entries
+     * of the previously built nest. The data of a file is copied from the
+     * previous nest as it is stored there, i.e. without inflating and deflating
+     * it, if the previous nest contains an entry with the same name, size and
+     * last modification time (in the ZIP precision of two seconds).
+     * The previous nest may be the file the new nest is going to be saved to.
+     *
+     * @param previousNest  previously built nest
+     * @return  nest builder
+     */
+    NestBuildTask incrementalFrom(File previousNest);
+
+    /**
+     * Same as {@link #incrementalFrom(File)} but if checkCrc is true
+     * the CRC-32 of the content of a file is also compared to the one of
+     * the entry in the previous nest before the data is reused.
+     * This requires reading the files but not compressing them.
+     *
+     * @param previousNest  previously built nest
+     * @param checkCrc  whether the CRC-32 of the content should also be compared
+     * @return  nest builder
+     */
+    NestBuildTask incrementalFrom(File previousNest, boolean checkCrc);
+
+    /**
+     * Stores the content shared by multiple files, e.g. the same library
+     * in several module directories, in the nest only once. The files are
+     * hashed before they are compressed and only the first of the files
+     * with identical content is compressed and stored, the other ones are
+     * stored as references to it, which are materialized by copying the
+     * expanded content when the nest is expanded.
+     * If the content manifest is requested, its digest algorithm is used
+     * to identify the content, otherwise SHA-256 is used.
+     *
+     * @return  nest builder
+     */
+    NestBuildTask deduplicate();
+
+    /**
+     * Reports the events of building the nest, such as the added entries
+     * and the written attachments, to the listener.
+     *
+     * @param listener  trace listener
+     * @return  nest builder
+     */
+    NestBuildTask trace(NestTraceListener listener);
+
     /**
      * Creates a package with the content added to the nest.
      * If a file already exists at the requested location,
@@ -153,6 +238,25 @@ public interface NestBuildTask {
      */
     File build(File dir, String name) throws NestException;
 
+    /**
+     * Creates a package with the content added to the nest writing it
+     * to the stream as it is being produced, i.e. without saving it to a file
+     * first. The stream is not closed when the nest has been written.
+     *
+     * @param out  the stream to write the package to
+     * @throws NestException  in case packing failed
+     */
+    void build(OutputStream out) throws NestException;
+
+    /**
+     * Same as {@link #build(OutputStream)} for a channel.
+     * The channel is not closed when the nest has been written.
+     *
+     * @param out  the channel to write the package to
+     * @throws NestException  in case packing failed
+     */
+    void build(WritableByteChannel out) throws NestException;
+
     public interface EntryExpandToBuilder extends NestBuildTask {
 
         /**
@@ -23,6 +23,11 @@
 package org.wildfly.nest.build;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,7 +37,14 @@ import java.util.Map;
 
 import org.wildfly.nest.EntryLocation;
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
+import org.wildfly.nest.common.LocationTable;
+import org.wildfly.nest.util.DigestPool;
+import org.wildfly.nest.util.IoUtils;
 import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.EntryAttachments;
+import org.wildfly.nest.zip.StringTable;
 import org.wildfly.nest.zip.build.ZipNestBuilder;
 
 /**
@@ -50,7 +62,26 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
     private final EntryExpandToBuilder expandToBuilder = new EntryExpandToBuilderImpl();
     private final EntryUnderBuilder underBuilder = new EntryUnderBuilderImpl();
 
+    /** the compiled locations, discarded when a location is added */
+    private LocationTable sourceTable;
+    private LocationTable nestTable;
+
     private File nestFile;
+    private WritableByteChannel nestChannel;
+
+    private int threads = 1;
+
+    private String manifestAlgorithm;
+    private ContentManifest contentManifest;
+    private StringTable stringTable;
+
+    private CompressionPolicy compressionPolicy = CompressionPolicy.DEFLATE;
+
+    private File previousNest;
+    private boolean checkCrc;
+
+    private boolean deduplicate;
+    private NestTraceListener traceListener;
 
     @Override
     public NestBuildTask nameSourceLocation(String name) {
@@ -123,12 +154,118 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
         return underBuilder;
     }
 
+    @Override
+    public NestBuildTask parallel(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    @Override
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public NestBuildTask contentManifest(String digestAlgorithm) {
+        if(digestAlgorithm == null) {
+            throw new IllegalArgumentException("digestAlgorithm is null");
+        }
+        try {
+            DigestPool.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Digest algorithm is not available: " + digestAlgorithm, e);
+        }
+        manifestAlgorithm = digestAlgorithm;
+        return this;
+    }
+
+    @Override
+    public ContentManifest getContentManifest() {
+        return contentManifest;
+    }
+
+    @Override
+    public StringTable getStringTable() {
+        return stringTable;
+    }
+
+    @Override
+    public NestBuildTask compression(CompressionPolicy policy) {
+        if(policy == null) {
+            throw new IllegalArgumentException("policy is null");
+        }
+        this.compressionPolicy = policy;
+        return this;
+    }
+
+    @Override
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    @Override
+    public NestBuildTask incrementalFrom(File previousNest) {
+        return incrementalFrom(previousNest, false);
+    }
+
+    @Override
+    public NestBuildTask incrementalFrom(File previousNest, boolean checkCrc) {
+        if(previousNest == null) {
+            throw new IllegalArgumentException("previousNest is null");
+        }
+        this.previousNest = previousNest;
+        this.checkCrc = checkCrc;
+        return this;
+    }
+
+    @Override
+    public File getPreviousNest() {
+        return previousNest;
+    }
+
+    @Override
+    public boolean isCheckCrc() {
+        return checkCrc;
+    }
+
+    @Override
+    public NestBuildTask deduplicate() {
+        this.deduplicate = true;
+        return this;
+    }
+
+    @Override
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    @Override
+    public NestBuildTask trace(NestTraceListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        this.traceListener = listener;
+        return this;
+    }
+
+    @Override
+    public NestTraceListener getTraceListener() {
+        return traceListener;
+    }
 
     @Override
     public File getNestFile() {
         return nestFile;
     }
 
+    @Override
+    public WritableByteChannel getNestChannel() {
+        return nestChannel;
+    }
+
     @Override
     public List<NestEntrySource> getEntries() {
         return Collections.unmodifiableList(entries);
@@ -168,8 +305,95 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
             throw new IllegalStateException("The path is not a directory " + dir.getAbsolutePath());
         }
         nestFile = new File(dir, name);
+        nestChannel = null;
+        compileLocations();
+        initContentManifest();
+        stringTable = EntryAttachments.DEFAULT.collectStrings(this);
+
+        if(previousNest == null || !isNestFile(previousNest)) {
+            return new ZipNestBuilder().build(this);
+        }
+
+        // the target is deleted before the new nest is written,
+        // so the previous nest is moved aside while it is being read
+        final File requestedPrevious = previousNest;
+        final File movedPrevious = new File(dir, name + ".previous");
+        IoUtils.recursiveDelete(movedPrevious);
+        if(!previousNest.renameTo(movedPrevious)) {
+            throw new NestException("Failed to move " + previousNest.getAbsolutePath() + " to " + movedPrevious.getAbsolutePath());
+        }
+        previousNest = movedPrevious;
+        boolean built = false;
+        try {
+            final File result = new ZipNestBuilder().build(this);
+            built = true;
+            return result;
+        } finally {
+            previousNest = requestedPrevious;
+            if(built) {
+                IoUtils.recursiveDelete(movedPrevious);
+            } else {
+                IoUtils.recursiveDelete(nestFile);
+                movedPrevious.renameTo(nestFile);
+            }
+        }
+    }
 
-        return new ZipNestBuilder().build(this);
+    @Override
+    public void build(OutputStream out) throws NestException {
+        if(out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+        build(Channels.newChannel(out));
+    }
+
+    @Override
+    public void build(WritableByteChannel out) throws NestException {
+        if(out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+        nestFile = null;
+        nestChannel = out;
+        try {
+            compileLocations();
+            initContentManifest();
+            stringTable = EntryAttachments.DEFAULT.collectStrings(this);
+            new ZipNestBuilder().build(this);
+        } finally {
+            nestChannel = null;
+        }
+    }
+
+    /**
+     * Compiles the location definitions, so that the definition errors
+     * are reported before anything is written.
+     */
+    private void compileLocations() throws NestException {
+        sourceTable = LocationTable.compile(sourceLocations, File.separator);
+        nestTable = LocationTable.compile(nestLocations, ZipUtils.ENTRY_SEPARATOR);
+    }
+
+    private void initContentManifest() throws NestException {
+        if(manifestAlgorithm == null) {
+            contentManifest = null;
+            return;
+        }
+        try {
+            contentManifest = ContentManifest.create(manifestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new NestException("Digest algorithm is not available: " + manifestAlgorithm, e);
+        }
+    }
+
+    private boolean isNestFile(File file) throws NestException {
+        if(!file.exists()) {
+            return false;
+        }
+        try {
+            return file.getCanonicalFile().equals(nestFile.getCanonicalFile());
+        } catch (IOException e) {
+            throw new NestException("Failed to resolve " + file.getAbsolutePath(), e);
+        }
     }
 
     @Override
@@ -177,7 +401,13 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
         if(sourceLocation == null) {
             throw new IllegalArgumentException("sourceLocation is null");
         }
-        return resolvePath(sourceLocation, sourceLocations, File.separator);
+        if(sourceLocation == EntryLocation.DEFAULT) {
+            return null;
+        }
+        if(sourceTable == null) {
+            sourceTable = LocationTable.compile(sourceLocations, File.separator);
+        }
+        return sourceTable.resolve(sourceLocation);
     }
 
     @Override
@@ -185,31 +415,13 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
         if(nestLocation == null) {
             throw new IllegalArgumentException("nestLocation is null");
         }
-        return resolvePath(nestLocation, nestLocations, ZipUtils.ENTRY_SEPARATOR);
-    }
-
-    private String resolvePath(EntryLocation location, Map<String, EntryLocation> locations, String separator) throws NestException {
-        if(location == EntryLocation.DEFAULT) {
+        if(nestLocation == EntryLocation.DEFAULT) {
             return null;
         }
-
-        final String relativeToName = location.getRelativeTo();
-        if(relativeToName == null) {
-            return location.getPath();
+        if(nestTable == null) {
+            nestTable = LocationTable.compile(nestLocations, ZipUtils.ENTRY_SEPARATOR);
         }
-
-        final EntryLocation relativeToLocation = locations.get(relativeToName);
-        if(relativeToLocation == null) {
-            throw new NestException("Missing location definition for " + relativeToName);
-        }
-        final String resolved = resolvePath(relativeToLocation, locations, separator);
-        if(resolved == null) {
-            return location.getPath();
-        }
-        if(location.getPath() == null) {
-            return resolved;
-        }
-        return resolved + separator + location.getPath();
+        return nestTable.resolve(nestLocation);
     }
 
     private EntryLocation assertSourceLocation(String name) {
@@ -241,6 +453,7 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
     }
 
     private void addSourceLocation(EntryLocation el) {
+        sourceTable = null;
         switch(sourceLocations.size()) {
             case 0:
                 sourceLocations = Collections.<String, EntryLocation>singletonMap(el.getName(), el);
@@ -253,6 +466,7 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
     }
 
     private void addNestLocation(EntryLocation el) {
+        nestTable = null;
         switch(nestLocations.size()) {
             case 0:
                 nestLocations = Collections.<String, EntryLocation>singletonMap(el.getName(), el);
@@ -393,9 +607,54 @@ class NestBuildTaskImpl implements NestBuildTask, NestBuildContext {
             return NestBuildTaskImpl.this.addLocation(srcLocationName);
         }
 
+        @Override
+        public NestBuildTask parallel(int threads) {
+            return NestBuildTaskImpl.this.parallel(threads);
+        }
+
+        @Override
+        public NestBuildTask contentManifest(String digestAlgorithm) {
+            return NestBuildTaskImpl.this.contentManifest(digestAlgorithm);
+        }
+
+        @Override
+        public NestBuildTask compression(CompressionPolicy policy) {
+            return NestBuildTaskImpl.this.compression(policy);
+        }
+
+        @Override
+        public NestBuildTask incrementalFrom(File previousNest) {
+            return NestBuildTaskImpl.this.incrementalFrom(previousNest);
+        }
+
+        @Override
+        public NestBuildTask incrementalFrom(File previousNest, boolean checkCrc) {
+            return NestBuildTaskImpl.this.incrementalFrom(previousNest, checkCrc);
+        }
+
         @Override
         public File build(File dir, String name) throws NestException {
             return NestBuildTaskImpl.this.build(dir, name);
         }
+
+        @Override
+        public NestBuildTask deduplicate() {
+            return NestBuildTaskImpl.this.deduplicate();
+        }
+
+        @Override
+        public NestBuildTask trace(NestTraceListener listener) {
+            return NestBuildTaskImpl.this.trace(listener);
+        }
+
+        @Override
+        public void build(OutputStream out) throws NestException {
+            NestBuildTaskImpl.this.build(out);
+        }
+
+        @Override
+        public void build(WritableByteChannel out) throws NestException {
+            NestBuildTaskImpl.this.build(out);
+        }
     }
 }
@@ -205,6 +205,28 @@ public abstract class AbstractCommonBuilder<T extends CommonBuilder<T>> implemen
         return Collections.unmodifiableCollection(nestLocations.values());
     }
 
+    /**
+     * Compiles the nest location definitions.
+     *
+     * @param separator  separator to join the paths of the relative locations with
+     * @return  compiled nest locations
+     * @throws NestException  in case of an invalid definition
+     */
+    protected LocationTable compileNestLocations(String separator) throws NestException {
+        return LocationTable.compile(nestLocations, separator);
+    }
+
+    /**
+     * Compiles the expand location definitions.
+     *
+     * @param separator  separator to join the paths of the relative locations with
+     * @return  compiled expand locations
+     * @throws NestException  in case of an invalid definition
+     */
+    protected LocationTable compileExpandLocations(String separator) throws NestException {
+        return LocationTable.compile(expandLocations, separator);
+    }
+
     protected EntryLocation assertNestLocation(String name) throws NestException {
         final EntryLocation location = nestLocations.get(name);
         if(location == null) {
@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.common;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.wildfly.nest.EntryLocation;
+import org.wildfly.nest.NestException;
+
+/**
+ * Immutable table of named locations compiled from their definitions.
+ * The locations are identified by int ids assigned in the topological
+ * order, i.e. a location relative to another one has a greater id than
+ * the other one, and their paths are resolved when the table is compiled,
+ * so resolving a location is a single lookup.
+ * The cycles in the definitions and the references to undefined locations
+ * are detected when the table is compiled.
+ *
+ * <p>The path of a location relative to another location is the path of
+ * the other location joined with the path of the location using the
+ * separator the table was compiled with. The resolved path is null if
+ * neither the location nor the locations it is relative to have a path.
+ *
+ * @author Alexey Loubyansky
+ */
+public class LocationTable {
+
+    public static final LocationTable EMPTY = new LocationTable(Collections.<String, Integer>emptyMap(),
+            new String[0], new int[0], new int[0], new String[0], new String[0], "");
+
+    /**
+     * Compiles the location definitions.
+     *
+     * @param locations  location definitions by their names
+     * @param separator  separator to join the paths of the relative locations with
+     * @return  compiled locations
+     * @throws NestException  in case the definitions contain a cycle or
+     *                        reference an undefined location
+     */
+    public static LocationTable compile(Map<String, EntryLocation> locations, String separator) throws NestException {
+        if(locations == null) {
+            throw new IllegalArgumentException("locations is null");
+        }
+        if(separator == null) {
+            throw new IllegalArgumentException("separator is null");
+        }
+        if(locations.isEmpty()) {
+            return EMPTY;
+        }
+        final int size = locations.size();
+        final Map<String, Integer> ids = new HashMap<String, Integer>(size * 2);
+        final String[] names = new String[size];
+        final int[] parents = new int[size];
+        final int[] roots = new int[size];
+        final String[] paths = new String[size];
+        final String[] resolved = new String[size];
+        int next = 0;
+
+        // the relative-to chain of the location being compiled
+        final Set<String> chain = new LinkedHashSet<String>();
+        for(String name : locations.keySet()) {
+            chain.clear();
+            String current = name;
+            while(current != null && !ids.containsKey(current)) {
+                if(!chain.add(current)) {
+                    throw new NestException("Cycle in the location definitions: " + describeCycle(chain, current));
+                }
+                final String relativeTo = locations.get(current).getRelativeTo();
+                if(relativeTo != null && !locations.containsKey(relativeTo)) {
+                    throw new NestException("Missing location definition for " + relativeTo);
+                }
+                current = relativeTo;
+            }
+
+            // the ids are assigned starting from the root of the chain
+            final String[] pending = chain.toArray(new String[chain.size()]);
+            for(int i = pending.length - 1; i >= 0; --i) {
+                final EntryLocation location = locations.get(pending[i]);
+                final int parent = location.getRelativeTo() == null ? -1 : ids.get(location.getRelativeTo());
+                names[next] = pending[i];
+                parents[next] = parent;
+                roots[next] = parent < 0 ? next : roots[parent];
+                paths[next] = location.getPath();
+                resolved[next] = join(parent < 0 ? null : resolved[parent], location.getPath(), separator);
+                ids.put(pending[i], next++);
+            }
+        }
+        return new LocationTable(ids, names, parents, roots, paths, resolved, separator);
+    }
+
+    private static String describeCycle(Set<String> chain, String repeated) {
+        final StringBuilder buf = new StringBuilder();
+        boolean inCycle = false;
+        for(String name : chain) {
+            if(name.equals(repeated)) {
+                inCycle = true;
+            }
+            if(inCycle) {
+                buf.append(name).append(" -> ");
+            }
+        }
+        return buf.append(repeated).toString();
+    }
+
+    private static String join(String parent, String path, String separator) {
+        if(parent == null) {
+            return path;
+        }
+        if(path == null) {
+            return parent;
+        }
+        return parent + separator + path;
+    }
+
+    private final Map<String, Integer> ids;
+    private final String[] names;
+    private final int[] parents;
+    private final int[] roots;
+    private final String[] paths;
+    private final String[] resolved;
+    private final String separator;
+
+    private LocationTable(Map<String, Integer> ids, String[] names, int[] parents, int[] roots, String[] paths, String[] resolved, String separator) {
+        this.ids = ids;
+        this.names = names;
+        this.parents = parents;
+        this.roots = roots;
+        this.paths = paths;
+        this.resolved = resolved;
+        this.separator = separator;
+    }
+
+    /**
+     * The number of the locations.
+     *
+     * @return  the number of the locations
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the id of the named location or -1 if the location is not defined.
+     *
+     * @param name  location name
+     * @return  location id or -1
+     */
+    public int getId(String name) {
+        final Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the id of the location the location is relative to or -1.
+     *
+     * @param id  location id
+     * @return  the id of the location the location is relative to or -1
+     */
+    public int getRelativeTo(int id) {
+        return parents[id];
+    }
+
+    /**
+     * Returns the id of the location at the root of the relative-to chain
+     * of the location, i.e. the location itself if it is not relative
+     * to another location.
+     *
+     * @param id  location id
+     * @return  the id of the root location
+     */
+    public int getRoot(int id) {
+        return roots[id];
+    }
+
+    /**
+     * The path of the location as it was defined, i.e. relative to the location
+     * it is relative to, if any.
+     *
+     * @param id  location id
+     * @return  the path the location was defined with or null
+     */
+    public String getPath(int id) {
+        return paths[id];
+    }
+
+    /**
+     * The resolved path of the location.
+     *
+     * @param id  location id
+     * @return  resolved path or null
+     */
+    public String getResolvedPath(int id) {
+        return resolved[id];
+    }
+
+    /**
+     * Resolves a location, which may be unnamed, relative to a location
+     * of the table.
+     *
+     * @param location  location to resolve
+     * @return  resolved path or null
+     * @throws NestException  if the location is relative to an undefined location
+     */
+    public String resolve(EntryLocation location) throws NestException {
+        if(location == null) {
+            throw new IllegalArgumentException("location is null");
+        }
+        final String relativeTo = location.getRelativeTo();
+        if(relativeTo == null) {
+            return location.getPath();
+        }
+        final Integer id = ids.get(relativeTo);
+        if(id == null) {
+            throw new NestException("Missing location definition for " + relativeTo);
+        }
+        return join(resolved[id], location.getPath(), separator);
+    }
+}
@@ -22,7 +22,18 @@
 
 package org.wildfly.nest.expand;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
+import org.wildfly.nest.zip.AttachmentEntryReader;
+import org.wildfly.nest.zip.AttachmentInput;
 import org.wildfly.nest.zip.EntryAttachments;
 import org.wildfly.nest.zip.NestAttachments;
 
@@ -32,34 +43,137 @@ import org.wildfly.nest.zip.NestAttachments;
  */
 public abstract class AbstractNestExpander<T> implements NestExpander {
 
+    private static final String TRACE_SOURCE = "expander";
+
+    /** the entry attachments are read on the calling thread only */
+    private final AttachmentInput attachmentInput = new AttachmentInput();
+    /** looked up once per expansion, null unless the expansion is traced */
+    private NestTraceListener trace;
+
     /* (non-Javadoc)
      * @see org.wildfly.nest.expand.NestExpander#expand(org.wildfly.nest.expand.NestExpandContext)
      */
     @Override
     public void expand(NestExpandContext ctx) throws NestException {
+        trace = ctx.getTraceListener();
         try {
+            if(trace != null) {
+                trace.trace(TRACE_SOURCE, "expand", ctx.getBaseExpandDir());
+            }
             prepareToExpand(ctx);
             final byte[] nestBytes = getNestAttachments(ctx);
             if(nestBytes != null) {
-                NestAttachments.DEFAULT.read(ctx, nestBytes);
+                if(trace != null) {
+                    trace.trace(TRACE_SOURCE, "nest attachments", nestBytes.length);
+                }
+                NestAttachments.DEFAULT.read(ctx, nestBytes, getAttachmentEntryReader());
             }
-            for (T entry : getEntries()) {
-                expandEntry(ctx, entry);
-                final byte[] bytes = getEntryAttachments(ctx, entry);
-                if(bytes != null) {
-                    EntryAttachments.DEFAULT.read(ctx, bytes);
+            final byte[] trailingBytes = getTrailingAttachments(ctx);
+            if(trailingBytes != null) {
+                if(trace != null) {
+                    trace.trace(TRACE_SOURCE, "trailing attachments", trailingBytes.length);
                 }
+                NestAttachments.TRAILING.read(ctx, trailingBytes);
+            }
+            if(ctx.getThreads() > 1) {
+                expandInParallel(ctx);
+            } else {
+                expandSequentially(ctx);
+            }
+            completeExpand(ctx);
+            if(trace != null) {
+                trace.trace(TRACE_SOURCE, "expanded", ctx.getBaseExpandDir());
             }
         } finally {
+            trace = null;
             tidyUpAfterExpand(ctx);
         }
     }
 
+    /**
+     * Expands the entries one by one on the calling thread.
+     *
+     * @param ctx  expand context
+     * @throws NestException  in case any of the entries failed to expand
+     */
+    protected void expandSequentially(NestExpandContext ctx) throws NestException {
+        for (T entry : getEntries()) {
+            expandEntry(ctx, entry);
+            readEntryAttachments(ctx, entry);
+        }
+    }
+
+    /**
+     * Creates the directories on the calling thread and then expands
+     * the file entries using a pool of worker threads.
+     * The directories and the expand paths of the entries are all resolved
+     * before any of the workers is started, so the workers only read
+     * the state of the context.
+     *
+     * @param ctx  expand context
+     * @throws NestException  in case any of the entries failed to expand
+     */
+    protected void expandInParallel(final NestExpandContext ctx) throws NestException {
+        final List<T> files = new ArrayList<T>();
+        for (T entry : getEntries()) {
+            if (isDirectory(entry)) {
+                expandEntry(ctx, entry);
+            } else {
+                files.add(entry);
+            }
+            readEntryAttachments(ctx, entry);
+        }
+        if(files.isEmpty()) {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(ctx.getThreads(), files.size()));
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>(files.size());
+            for (final T entry : files) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        expandEntry(ctx, entry);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof NestException) {
+                        throw (NestException) cause;
+                    }
+                    throw new NestException("Failed to expand entry", cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NestException("Interrupted while expanding entries", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     protected abstract Iterable<T> getEntries() throws NestException;
 
+    protected abstract boolean isDirectory(T entry);
+
     protected void prepareToExpand(NestExpandContext ctx) throws NestException {
     }
 
+    /**
+     * Called after all the entries have been expanded.
+     *
+     * @param ctx  expand context
+     * @throws NestException  in case of a failure
+     */
+    protected void completeExpand(NestExpandContext ctx) throws NestException {
+    }
+
     protected void tidyUpAfterExpand(NestExpandContext ctx) throws NestException {
     }
 
@@ -67,9 +181,33 @@ public abstract class AbstractNestExpander<T> implements NestExpander {
         return null;
     }
 
+    protected byte[] getTrailingAttachments(NestExpandContext ctx) throws NestException {
+        return null;
+    }
+
+    /**
+     * The reader of the attachments stored in dedicated entries of the nest
+     * or null if the attachments are all stored with their entries.
+     *
+     * @return  attachment entry reader or null
+     */
+    protected AttachmentEntryReader getAttachmentEntryReader() {
+        return null;
+    }
+
     protected abstract void expandEntry(NestExpandContext ctx, T entry) throws NestException;
 
     protected byte[] getEntryAttachments(NestExpandContext ctx, T entry) throws NestException {
         return null;
     }
+
+    private void readEntryAttachments(NestExpandContext ctx, T entry) throws NestException {
+        final byte[] bytes = getEntryAttachments(ctx, entry);
+        if(bytes != null) {
+            if(trace != null) {
+                trace.trace(TRACE_SOURCE, "entry attachments", bytes.length);
+            }
+            EntryAttachments.DEFAULT.read(ctx, bytes, attachmentInput, getAttachmentEntryReader());
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.expand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.wildfly.nest.util.ZipUtils;
+
+/**
+ * The entries of the nest selected to be expanded.
+ * An entry is selected if its name is one of the selected paths or is
+ * under one of them, or if it matches one of the selected glob patterns.
+ *
+ * <p>In the glob patterns, {@code *} matches any sequence of characters
+ * within a path segment, {@code **} matches any sequence of characters
+ * including the separators and {@code ?} matches a single character
+ * other than the separator.
+ *
+ * <p>{@link #getPrefixes()} are the literal name prefixes all the selected
+ * entries start with, so that the expander could look up the candidates in
+ * an index of the names instead of checking every entry of the nest.
+ *
+ * @author Alexey Loubyansky
+ */
+public class EntrySelection {
+
+    private List<String> paths = Collections.emptyList();
+    private List<Pattern> globs = Collections.emptyList();
+    private List<String> prefixes = Collections.emptyList();
+
+    /**
+     * Selects the entry with the path and, if it is a directory,
+     * the entries under it.
+     *
+     * @param nestPath  path inside the nest
+     * @return  this selection
+     */
+    public EntrySelection addPath(String nestPath) {
+        if(nestPath == null) {
+            throw new IllegalArgumentException("nestPath is null");
+        }
+        if(nestPath.endsWith(ZipUtils.ENTRY_SEPARATOR)) {
+            nestPath = nestPath.substring(0, nestPath.length() - ZipUtils.ENTRY_SEPARATOR.length());
+        }
+        paths = add(paths, nestPath);
+        prefixes = add(prefixes, nestPath);
+        return this;
+    }
+
+    /**
+     * Selects the entries whose names match the glob pattern.
+     *
+     * @param glob  glob pattern
+     * @return  this selection
+     */
+    public EntrySelection addGlob(String glob) {
+        if(glob == null) {
+            throw new IllegalArgumentException("glob is null");
+        }
+        final StringBuilder regex = new StringBuilder();
+        int literalEnd = -1;
+        int i = 0;
+        while(i < glob.length()) {
+            final char c = glob.charAt(i);
+            if(c == '*' || c == '?') {
+                if(literalEnd < 0) {
+                    literalEnd = i;
+                }
+                if(c == '?') {
+                    regex.append("[^/]");
+                } else if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    ++i;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            ++i;
+        }
+        globs = add(globs, Pattern.compile(regex.toString()));
+        prefixes = add(prefixes, literalEnd < 0 ? glob : glob.substring(0, literalEnd));
+        return this;
+    }
+
+    /**
+     * The literal prefixes the names of all the selected entries start with.
+     *
+     * @return  name prefixes of the selected entries
+     */
+    public List<String> getPrefixes() {
+        return Collections.unmodifiableList(prefixes);
+    }
+
+    /**
+     * Whether the entry with the name is selected.
+     *
+     * @param name  entry name
+     * @return  whether the entry is selected
+     */
+    public boolean matches(String name) {
+        for(String path : paths) {
+            if(name.startsWith(path) && (name.length() == path.length()
+                    || path.isEmpty() || name.startsWith(ZipUtils.ENTRY_SEPARATOR, path.length()))) {
+                return true;
+            }
+        }
+        for(Pattern glob : globs) {
+            if(glob.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the item to the list, which starts as an empty or a singleton
+     * list and is copied into a mutable one when the second item is added.
+     *
+     * @param list  the list to add the item to
+     * @param item  the item
+     * @return  the list including the item
+     */
+    static <T> List<T> add(List<T> list, T item) {
+        if(list.isEmpty()) {
+            return Collections.singletonList(item);
+        }
+        if(list.size() == 1) {
+            list = new ArrayList<T>(list);
+        }
+        list.add(item);
+        return list;
+    }
+}
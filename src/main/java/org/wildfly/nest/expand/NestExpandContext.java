@@ -25,6 +25,8 @@ package org.wildfly.nest.expand;
 import java.io.File;
 
 import org.wildfly.nest.NestContext;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.StringTable;
 
 /**
  *
@@ -32,9 +34,81 @@ import org.wildfly.nest.NestContext;
  */
 public interface NestExpandContext extends NestContext {
 
+    /**
+     * The nest file or null if the nest is expanded from a stream.
+     *
+     * @return  the nest file or null
+     */
     File getNestFile();
 
     File getBaseExpandDir();
 
     File resolveExpandPath(String nestPath);
+
+    /**
+     * The number of threads the file entries should be expanded with.
+     *
+     * @return  the number of threads to expand the file entries with
+     */
+    int getThreads();
+
+    /**
+     * The manifest the content of the expanded file entries should be
+     * verified against or null if the content should not be verified.
+     *
+     * @return  content manifest or null
+     */
+    ContentManifest getContentManifest();
+
+    void setContentManifest(ContentManifest manifest);
+
+    /**
+     * The strings shared by the entry attachments of the nest or null
+     * if the nest was built without a string table.
+     *
+     * @return  string table or null
+     */
+    StringTable getStringTable();
+
+    void setStringTable(StringTable strings);
+
+    /**
+     * Whether the files that are already present at their expand paths
+     * and match the entries should be left as they are.
+     *
+     * @return  whether the nest is synced into the existing content
+     */
+    boolean isSync();
+
+    /**
+     * Whether the files that are not in the nest should be deleted
+     * from the synced directories.
+     *
+     * @return  whether the files that are not in the nest should be deleted
+     */
+    boolean isDeleteExtraneous();
+
+    /**
+     * The directory with the previously expanded content the unchanged
+     * files should be hard-linked from or null.
+     *
+     * @return  reference directory or null
+     */
+    File getReferenceDir();
+
+    /**
+     * Whether the files sharing the content of another file in
+     * a deduplicated nest should be hard-linked to it instead of copied.
+     *
+     * @return  whether to hard-link the duplicates
+     */
+    boolean isHardLinkDuplicates();
+
+    /**
+     * The entries that should be expanded or null if all the entries
+     * of the nest should be expanded.
+     *
+     * @return  the entries to expand or null
+     */
+    EntrySelection getSelection();
 }
@@ -23,9 +23,14 @@
 package org.wildfly.nest.expand;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
 import org.wildfly.nest.common.CommonBuilder;
+import org.wildfly.nest.zip.expand.ZipNestHandle;
 
 /**
  *
@@ -37,6 +42,27 @@ public interface NestExpandTask extends CommonBuilder<NestExpandTask> {
         public static NestExpandTask create(File nestFile) {
             return new NestExpandTaskImpl(nestFile);
         }
+
+        public static NestExpandTask create(InputStream nestStream) {
+            return new NestExpandTaskImpl(nestStream);
+        }
+
+        public static NestExpandTask create(ReadableByteChannel nestChannel) {
+            if(nestChannel == null) {
+                throw new IllegalArgumentException("nestChannel is null");
+            }
+            return new NestExpandTaskImpl(Channels.newInputStream(nestChannel));
+        }
+
+        public static NestExpandTask create(NestHandle handle) {
+            if(handle == null) {
+                throw new IllegalArgumentException("handle is null");
+            }
+            if(!(handle instanceof ZipNestHandle)) {
+                throw new IllegalArgumentException("Unsupported nest handle " + handle);
+            }
+            return new NestExpandTaskImpl((ZipNestHandle) handle);
+        }
     }
 
     /**
@@ -63,6 +89,132 @@ public interface NestExpandTask extends CommonBuilder<NestExpandTask> {
      */
     NestExpandTask linkExpandLocation(String expandLocationName, String relativeToLocation, String path) throws NestException;
 
+    /**
+     * Sets the number of threads used to expand the file entries of the nest.
+     * If the number is greater than one, the directories are created first
+     * and then the file entries are expanded by the worker threads, which
+     * share the reader of the nest since all its reads are positional.
+     * The default is one, i.e. the entries are expanded sequentially by the
+     * calling thread.
+     *
+     * @param threads  the number of threads to expand the file entries with
+     * @return  nest builder
+     */
+    NestExpandTask parallel(int threads);
+
+    /**
+     * Whether the content of the expanded file entries should be verified
+     * against the content manifest, if the nest includes one.
+     * The content is hashed while it is written, so the verification does not
+     * require the expanded files to be read again.
+     * The default is true.
+     *
+     * @param verify  whether to verify the expanded content
+     * @return  nest builder
+     */
+    NestExpandTask verifyContent(boolean verify);
+
+    /**
+     * Same as {@link #sync(boolean)} with false, i.e. the files that are
+     * not in the nest are left in place.
+     *
+     * @return  nest builder
+     */
+    NestExpandTask sync();
+
+    /**
+     * Expands the nest into a directory that may already contain a previous
+     * version of the content. A file whose size and CRC-32 match those
+     * of the entry in the nest is left as it is, otherwise the entry is
+     * expanded replacing the file.
+     * If deleteExtraneous is true, the files and directories that are not
+     * in the nest are deleted from the base expand directory and
+     * the directories expanded from the nest. If the expansion is restricted
+     * to a part of the nest, the base expand directory is left as it is.
+     *
+     * @param deleteExtraneous  whether to delete the files that are not in the nest
+     * @return  nest builder
+     */
+    NestExpandTask sync(boolean deleteExtraneous);
+
+    /**
+     * Expands the nest next to a directory with the previously expanded
+     * content, e.g. the currently running version of an installation.
+     * A file entry whose size and CRC-32 match those of the file at the same
+     * relative path in the reference directory is not expanded, instead,
+     * the file is hard-linked from the reference directory (or copied, if
+     * the link can't be created). So only the changed entries are inflated
+     * and written.
+     * Since the hard links share the content with the reference directory,
+     * the files must be replaced rather than modified in place in either
+     * of the directories. The linked files are not verified against
+     * the content manifest.
+     *
+     * @param referenceDir  directory with the previously expanded content
+     * @return  nest builder
+     */
+    NestExpandTask linkFrom(File referenceDir);
+
+    /**
+     * Whether the files of a deduplicated nest sharing the content of
+     * another file should be expanded as hard links to the file instead
+     * of its copies. Since the hard links share the content, a change
+     * of one of the files is visible in all of them.
+     * If a hard link can't be created, the file is copied.
+     * The default is false.
+     *
+     * @param hardLink  whether to hard-link the duplicates
+     * @return  nest builder
+     */
+    NestExpandTask hardLinkDuplicates(boolean hardLink);
+
+    /**
+     * Reports the events of expanding the nest, such as the read
+     * attachments, to the listener.
+     *
+     * @param listener  trace listener
+     * @return  nest builder
+     */
+    NestExpandTask trace(NestTraceListener listener);
+
+    /**
+     * Restricts the expansion to the content of the named nest location.
+     * The methods restricting the expansion can be combined, in which case
+     * the entries selected by any of them are expanded. By default, all
+     * the entries of the nest are expanded.
+     * The entries are looked up in an index of the entry names, so
+     * the entries that are not selected are not visited.
+     *
+     * @param nestLocationName  named nest location to expand
+     * @return  nest builder
+     */
+    NestExpandTask includeLocation(String nestLocationName);
+
+    /**
+     * Restricts the expansion to the entry with the path inside the nest
+     * and, if it is a directory, the entries under it.
+     *
+     * @see #includeLocation(String)
+     * @param nestPath  path inside the nest
+     * @return  nest builder
+     */
+    NestExpandTask includePath(String nestPath);
+
+    /**
+     * Restricts the expansion to the entries whose paths inside the nest
+     * match the glob pattern, where {@code *} matches any characters
+     * within a directory name, {@code **} matches any characters across
+     * directories and {@code ?} matches a single character.
+     * The part of the pattern preceding the first wildcard is used to look up
+     * the candidates in the index, so a pattern starting with a wildcard
+     * makes every entry a candidate.
+     *
+     * @see #includeLocation(String)
+     * @param glob  glob pattern
+     * @return  nest builder
+     */
+    NestExpandTask includeGlob(String glob);
+
     /**
      * Expands the nest package into the specified directory.
      *
@@ -23,17 +23,23 @@
 package org.wildfly.nest.expand;
 
 import java.io.File;
-import java.util.Collection;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.wildfly.nest.EntryLocation;
 import org.wildfly.nest.NestEntry;
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
 import org.wildfly.nest.common.AbstractCommonBuilder;
-import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.common.LocationTable;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.StringTable;
+import org.wildfly.nest.zip.expand.StreamingZipNestExpander;
 import org.wildfly.nest.zip.expand.ZipNestExpander;
+import org.wildfly.nest.zip.expand.ZipNestHandle;
 
 /**
  *
@@ -43,10 +49,36 @@ import org.wildfly.nest.zip.expand.ZipNestExpander;
 public class NestExpandTaskImpl extends AbstractCommonBuilder<NestExpandTask> implements NestExpandTask, NestExpandContext {
 
     private final File nestFile;
+    private final ZipNestHandle handle;
+    private final InputStream nestStream;
 
     private File baseExpandDir;
 
     private Map<String, File> linkedNestPaths;
+    /** the linked nest paths the expand paths of the entries are resolved against */
+    private NestPathTrie nestPathTrie = NestPathTrie.EMPTY;
+
+    /** the locations compiled when the nest is expanded */
+    private LocationTable nestTable = LocationTable.EMPTY;
+    private LocationTable expandTable = LocationTable.EMPTY;
+
+    private int threads = 1;
+
+    private boolean verifyContent = true;
+    private ContentManifest contentManifest;
+    private StringTable stringTable;
+
+    private boolean sync;
+    private boolean deleteExtraneous;
+
+    private boolean hardLinkDuplicates;
+    private NestTraceListener traceListener;
+    private File referenceDir;
+
+    private List<String> includedLocations = Collections.emptyList();
+    private List<String> includedPaths = Collections.emptyList();
+    private List<String> includedGlobs = Collections.emptyList();
+    private EntrySelection selection;
 
     NestExpandTaskImpl(File nestFile) {
         if(nestFile == null) {
@@ -59,6 +91,26 @@ public class NestExpandTaskImpl extends AbstractCommonBuilder<NestExpandTask> im
             throw new IllegalArgumentException(nestFile.getAbsolutePath() + " is not a file.");
         }
         this.nestFile = nestFile;
+        this.handle = null;
+        this.nestStream = null;
+    }
+
+    NestExpandTaskImpl(ZipNestHandle handle) {
+        if(handle == null) {
+            throw new IllegalArgumentException("handle is null");
+        }
+        this.nestFile = handle.getNestFile();
+        this.handle = handle;
+        this.nestStream = null;
+    }
+
+    NestExpandTaskImpl(InputStream nestStream) {
+        if(nestStream == null) {
+            throw new IllegalArgumentException("nestStream is null");
+        }
+        this.nestFile = null;
+        this.handle = null;
+        this.nestStream = nestStream;
     }
 
     @Override
@@ -90,6 +142,142 @@ public class NestExpandTaskImpl extends AbstractCommonBuilder<NestExpandTask> im
         return this;
     }
 
+    @Override
+    public NestExpandTask parallel(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    @Override
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public NestExpandTask verifyContent(boolean verify) {
+        this.verifyContent = verify;
+        return this;
+    }
+
+    @Override
+    public ContentManifest getContentManifest() {
+        return verifyContent ? contentManifest : null;
+    }
+
+    @Override
+    public void setContentManifest(ContentManifest manifest) {
+        this.contentManifest = manifest;
+    }
+
+    @Override
+    public StringTable getStringTable() {
+        return stringTable;
+    }
+
+    @Override
+    public void setStringTable(StringTable strings) {
+        this.stringTable = strings;
+    }
+
+    @Override
+    public NestExpandTask sync() {
+        return sync(false);
+    }
+
+    @Override
+    public NestExpandTask sync(boolean deleteExtraneous) {
+        this.sync = true;
+        this.deleteExtraneous = deleteExtraneous;
+        return this;
+    }
+
+    @Override
+    public boolean isSync() {
+        return sync;
+    }
+
+    @Override
+    public boolean isDeleteExtraneous() {
+        return deleteExtraneous;
+    }
+
+    @Override
+    public NestExpandTask linkFrom(File referenceDir) {
+        if(referenceDir == null) {
+            throw new IllegalArgumentException("referenceDir is null");
+        }
+        if(referenceDir.exists() && !referenceDir.isDirectory()) {
+            throw new IllegalArgumentException(referenceDir.getAbsolutePath() + " is not a directory");
+        }
+        this.referenceDir = referenceDir;
+        return this;
+    }
+
+    @Override
+    public File getReferenceDir() {
+        return referenceDir;
+    }
+
+    @Override
+    public NestExpandTask hardLinkDuplicates(boolean hardLink) {
+        this.hardLinkDuplicates = hardLink;
+        return this;
+    }
+
+    @Override
+    public boolean isHardLinkDuplicates() {
+        return hardLinkDuplicates;
+    }
+
+    @Override
+    public NestExpandTask trace(NestTraceListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        this.traceListener = listener;
+        return this;
+    }
+
+    @Override
+    public NestTraceListener getTraceListener() {
+        return traceListener;
+    }
+
+    @Override
+    public NestExpandTask includeLocation(String nestLocationName) {
+        if(nestLocationName == null) {
+            throw new IllegalArgumentException("nestLocationName is null");
+        }
+        includedLocations = EntrySelection.add(includedLocations, nestLocationName);
+        return this;
+    }
+
+    @Override
+    public NestExpandTask includePath(String nestPath) {
+        if(nestPath == null) {
+            throw new IllegalArgumentException("nestPath is null");
+        }
+        includedPaths = EntrySelection.add(includedPaths, nestPath);
+        return this;
+    }
+
+    @Override
+    public NestExpandTask includeGlob(String glob) {
+        if(glob == null) {
+            throw new IllegalArgumentException("glob is null");
+        }
+        includedGlobs = EntrySelection.add(includedGlobs, glob);
+        return this;
+    }
+
+    @Override
+    public EntrySelection getSelection() {
+        return selection;
+    }
+
     @Override
     public File getNestFile() {
         return nestFile;
@@ -103,31 +291,7 @@ public class NestExpandTaskImpl extends AbstractCommonBuilder<NestExpandTask> im
     @Override
     public File resolveExpandPath(String nestPath) {
         assert nestPath != null : "nest path is null";
-        return resolveExpandPath(nestPath, nestPath.endsWith(ZipUtils.ENTRY_SEPARATOR));
-    }
-
-    protected File resolveExpandPath(String nestPath, boolean cache) {
-        if(!linkedNestPaths.isEmpty()) {
-            File expandPath = linkedNestPaths.get(nestPath);
-            if(expandPath != null) {
-                return expandPath;
-            }
-
-            int fromIndex = nestPath.endsWith(ZipUtils.ENTRY_SEPARATOR) ? nestPath.length() - 1 - ZipUtils.ENTRY_SEPARATOR.length() : nestPath.length() - 1;
-            int sep = nestPath.lastIndexOf(ZipUtils.ENTRY_SEPARATOR, fromIndex);
-            if(sep < 0) {
-                expandPath = new File(baseExpandDir, nestPath);
-            } else {
-                String parent = nestPath.substring(0, sep + 1);
-                File parentPath = resolveExpandPath(parent, false);
-                expandPath = new File(parentPath, nestPath.substring(sep));
-            }
-            if(cache) {
-                linkedNestPaths.put(nestPath, expandPath);
-            }
-            return expandPath;
-        }
-        return new File(baseExpandDir, nestPath);
+        return nestPathTrie.resolve(nestPath, baseExpandDir);
     }
 
     @Override
@@ -142,43 +306,73 @@ public class NestExpandTaskImpl extends AbstractCommonBuilder<NestExpandTask> im
         }
 
         this.baseExpandDir = baseExpandDir;
+        // set from the nest attachments, absent in the nests built before the table was introduced
+        stringTable = null;
         linkNestPaths(baseExpandDir);
+        selection = createSelection();
 
-        new ZipNestExpander().expand(this);
+        if(handle != null) {
+            new ZipNestExpander(handle).expand(this);
+        } else if(nestStream != null) {
+            new StreamingZipNestExpander(nestStream).expand(this);
+        } else {
+            new ZipNestExpander().expand(this);
+        }
+    }
+
+    private EntrySelection createSelection() throws NestException {
+        if(includedLocations.isEmpty() && includedPaths.isEmpty() && includedGlobs.isEmpty()) {
+            return null;
+        }
+        final EntrySelection selection = new EntrySelection();
+        for(String name : includedLocations) {
+            selection.addPath(resolveNestLocationPath(name));
+        }
+        for(String path : includedPaths) {
+            selection.addPath(path);
+        }
+        for(String glob : includedGlobs) {
+            selection.addGlob(glob);
+        }
+        return selection;
+    }
+
+    private String resolveNestLocationPath(String name) throws NestException {
+        final int id = nestTable.getId(name);
+        if(id < 0) {
+            throw new NestException("Nest location not found: " + name);
+        }
+        final String path = nestTable.getResolvedPath(id);
+        if(path == null) {
+            throw new NestException("Nest path is null for location " + name);
+        }
+        return path;
     }
 
     protected void linkNestPaths(File baseDir) throws NestException {
         assert baseDir != null : "base dir is null";
-        final Collection<EntryLocation> nestLocations = getNestLocations();
-        if(nestLocations.isEmpty()) {
+        nestTable = compileNestLocations("");
+        expandTable = compileExpandLocations(File.separator);
+        if(nestTable.size() == 0) {
             linkedNestPaths = Collections.emptyMap();
+            nestPathTrie = NestPathTrie.EMPTY;
             return;
         }
-        final Map<String,String> nestPathByName = new HashMap<String,String>(nestLocations.size());
-        linkedNestPaths = new HashMap<String,File>(nestLocations.size());
-        for(String nestName : getNestLocationNames()) {
-            linkNestLocation(nestName, baseDir, nestPathByName);
+        linkedNestPaths = new HashMap<String,File>(nestTable.size());
+        // the ids are in the topological order, so the location a location
+        // is relative to is linked before the location
+        final File[] expandPaths = new File[nestTable.size()];
+        for(int id = 0; id < nestTable.size(); ++id) {
+            expandPaths[id] = linkNestLocation(id, baseDir, expandPaths);
         }
+        nestPathTrie = NestPathTrie.build(linkedNestPaths);
     }
 
-    protected File linkNestLocation(String nestName, File base, Map<String,String> nestPathByName) throws NestException {
-        String nestPath = nestPathByName.get(nestName);
-        if(nestPath != null) {
-            return linkedNestPaths.get(nestPath);
-        }
-        final EntryLocation nestLocation = assertNestLocation(nestName);
-        File relativeTo = null;
-        if(nestLocation.getRelativeTo() != null) {
-            relativeTo = linkNestLocation(nestLocation.getRelativeTo(), base, nestPathByName);
-            nestPath = nestLocation.getPath() != null ? nestPathByName.get(nestLocation.getRelativeTo()) + nestLocation.getPath() :
-                nestPathByName.get(nestLocation.getRelativeTo());
-        } else {
-            nestPath = nestLocation.getPath();
-            if(nestPath == null) {
-                throw new NestException("Nest path is null for location " + nestLocation.getName());
-            }
+    protected File linkNestLocation(int id, File base, File[] expandPaths) throws NestException {
+        final String nestPath = nestTable.getResolvedPath(id);
+        if(nestPath == null) {
+            throw new NestException("Nest path is null for location " + nestTable.getName(id));
         }
-        nestPathByName.put(nestName, nestPath);
 
         // a path could theoretically be mapped to two different expand paths
         // e.g. a named nest location could be linked to an expand path explicitly
@@ -190,38 +384,38 @@ public class NestExpandTaskImpl extends AbstractCommonBuilder<NestExpandTask> im
             return expandPath;
         }
 
-        final NestEntry nestEntry = getNestEntry(nestLocation.getName());
+        final NestEntry nestEntry = getNestEntry(nestTable.getName(id));
         if(nestEntry != null) {
             final EntryLocation expandLocation = nestEntry.getExpandLocation();
             assert expandLocation != null : "expand location is null";
             expandPath = resolveExpandLocation(expandLocation);
         } else {
             // not linked named location
-            final File relativeToDir = relativeTo == null ? base : relativeTo;
-            if(nestLocation.getPath() == null) {
-                expandPath = relativeToDir;
-            } else {
-                expandPath = new File(relativeToDir, nestLocation.getPath());
-            }
+            final int relativeTo = nestTable.getRelativeTo(id);
+            final File relativeToDir = relativeTo < 0 ? base : expandPaths[relativeTo];
+            final String path = nestTable.getPath(id);
+            expandPath = path == null ? relativeToDir : new File(relativeToDir, path);
         }
         linkedNestPaths.put(nestPath, expandPath);
         return expandPath;
     }
 
     protected File resolveExpandLocation(EntryLocation location) throws NestException {
-        if(location.getRelativeTo() != null) {
-            final EntryLocation relativeTo = assertExpandLocation(location.getRelativeTo());
-            final File relativeToDir = resolveExpandLocation(relativeTo);
+        if(location.getRelativeTo() == null) {
             if(location.getPath() == null) {
-                return relativeToDir;
-            } else {
-                return new File(relativeToDir, location.getPath());
+                throw new NestException("Expand location " + location.getName() + " is missing path.");
             }
+            return new File(this.baseExpandDir, location.getPath());
         }
-        final String path = location.getPath();
-        if(path == null) {
-            throw new NestException("Expand location " + location.getName() + " is missing path.");
+        final int id = expandTable.getId(location.getRelativeTo());
+        if(id < 0) {
+            throw new NestException("Expand location not found: " + location.getRelativeTo());
+        }
+        final int root = expandTable.getRoot(id);
+        if(expandTable.getPath(root) == null) {
+            throw new NestException("Expand location " + expandTable.getName(root) + " is missing path.");
         }
-        return new File(this.baseExpandDir, path);
+        final File relativeToDir = new File(this.baseExpandDir, expandTable.getResolvedPath(id));
+        return location.getPath() == null ? relativeToDir : new File(relativeToDir, location.getPath());
     }
 }
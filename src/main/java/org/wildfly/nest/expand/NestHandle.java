@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.expand;
+
+import java.io.Closeable;
+import java.io.File;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.zip.expand.ZipNestHandle;
+
+/**
+ * An opened nest which can be expanded multiple times, including
+ * concurrently, with the expand tasks sharing the index of the entries,
+ * the attachments of the nest and the file descriptor which are read
+ * only once, when the nest is opened.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface NestHandle extends Closeable {
+
+    class FACTORY {
+        public static NestHandle open(File nestFile) throws NestException {
+            return ZipNestHandle.open(nestFile);
+        }
+    }
+
+    File getNestFile();
+
+    /**
+     * Creates a new task to expand the nest. The tasks are independent
+     * of each other, i.e. each can have its own expand location links,
+     * and can be executed concurrently.
+     *
+     * @return  new expand task
+     */
+    NestExpandTask newExpandTask();
+}
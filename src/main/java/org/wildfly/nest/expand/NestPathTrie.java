@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.expand;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.wildfly.nest.util.ZipUtils;
+
+/**
+ * Immutable trie of the nest paths linked to expand paths.
+ *
+ * <p>A nest path is resolved in a single pass over its characters: the
+ * trie is walked as long as it matches and the deepest linked directory
+ * (a linked path ending with the separator) the nest path starts with is
+ * remembered. A linked path not ending with the separator only matches
+ * the same nest path.
+ *
+ * @author Alexey Loubyansky
+ */
+final class NestPathTrie {
+
+    private static final char SEPARATOR = ZipUtils.ENTRY_SEPARATOR.charAt(0);
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    static final NestPathTrie EMPTY = new NestPathTrie(new Node(NO_CHARS, NO_NODES, null));
+
+    static NestPathTrie build(Map<String, File> linkedPaths) {
+        if(linkedPaths.isEmpty()) {
+            return EMPTY;
+        }
+        // the paths are inserted one by one, since linked paths can be deep enough
+        // to overflow the stack if the trie was built recursively
+        final Node root = new Node(NO_CHARS, NO_NODES, null);
+        for(Map.Entry<String, File> linked : linkedPaths.entrySet()) {
+            final String path = linked.getKey();
+            Node node = root;
+            for(int i = 0; i < path.length(); ++i) {
+                node = node.getOrAddChild(path.charAt(i));
+            }
+            node.expandPath = linked.getValue();
+        }
+        return new NestPathTrie(root);
+    }
+
+    private final Node root;
+
+    private NestPathTrie(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Resolves the expand path of the nest path.
+     *
+     * @param nestPath  nest path
+     * @param baseDir  the directory the nest paths which are not under
+     *                 a linked directory are resolved against
+     * @return  the expand path
+     */
+    File resolve(String nestPath, File baseDir) {
+        final int length = nestPath.length();
+        if(length == 0) {
+            return root.expandPath == null ? new File(baseDir, nestPath) : root.expandPath;
+        }
+        Node node = root;
+        File linked = null;
+        int linkedLength = 0;
+        int i = 0;
+        while(i < length) {
+            final char c = nestPath.charAt(i++);
+            node = node.getChild(c);
+            if(node == null) {
+                break;
+            }
+            if(node.expandPath != null && (c == SEPARATOR || i == length)) {
+                linked = node.expandPath;
+                linkedLength = i;
+            }
+        }
+        if(linked == null) {
+            return new File(baseDir, nestPath);
+        }
+        if(linkedLength == length) {
+            return linked;
+        }
+        return new File(linked, nestPath.substring(linkedLength));
+    }
+
+    private static final class Node {
+
+        // the fields are only modified while the trie is being built
+        char[] chars;
+        Node[] children;
+        File expandPath;
+
+        Node(char[] chars, Node[] children, File expandPath) {
+            this.chars = chars;
+            this.children = children;
+            this.expandPath = expandPath;
+        }
+
+        Node getChild(char c) {
+            final int i = Arrays.binarySearch(chars, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node getOrAddChild(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            if(i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            final char[] newChars = new char[chars.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            final Node child = new Node(NO_CHARS, NO_NODES, null);
+            newChars[i] = c;
+            newChildren[i] = child;
+            chars = newChars;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of the I/O buffers of the same size, heap byte arrays
+ * and direct byte buffers, shared by the threads building and expanding
+ * nests, so that copying the content of the entries does not allocate
+ * a new buffer per entry.
+ *
+ * <p>A buffer taken from the pool must be returned to it once it is not
+ * used anymore and must not be used after that. If the pool is empty
+ * a new buffer is allocated, if the pool is full a returned buffer is
+ * left to the garbage collector.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 65536;
+
+    /** the pool shared by the builders and the expanders */
+    public static final BufferPool DEFAULT = new BufferPool(BUFFER_SIZE, Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> arrays;
+    private final BlockingQueue<ByteBuffer> directBuffers;
+
+    /**
+     * Creates a pool of buffers of the specified size keeping at most
+     * the specified number of the heap and the direct buffers each.
+     *
+     * @param bufferSize  the size of the buffers
+     * @param maxPooled  the maximum number of the idle buffers of each kind
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        if(bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        if(maxPooled <= 0) {
+            throw new IllegalArgumentException("maxPooled must be positive");
+        }
+        this.bufferSize = bufferSize;
+        arrays = new ArrayBlockingQueue<byte[]>(maxPooled);
+        directBuffers = new ArrayBlockingQueue<ByteBuffer>(maxPooled);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Takes a heap buffer from the pool or allocates a new one.
+     *
+     * @return  byte array of the buffer size
+     */
+    public byte[] getArray() {
+        final byte[] array = arrays.poll();
+        return array == null ? new byte[bufferSize] : array;
+    }
+
+    /**
+     * Returns the heap buffer to the pool.
+     *
+     * @param array  byte array taken from the pool
+     */
+    public void release(byte[] array) {
+        if(array != null && array.length == bufferSize) {
+            arrays.offer(array);
+        }
+    }
+
+    /**
+     * Takes a cleared direct buffer from the pool or allocates a new one.
+     *
+     * @return  direct byte buffer of the buffer size
+     */
+    public ByteBuffer getDirectBuffer() {
+        final ByteBuffer buf = directBuffers.poll();
+        if(buf == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Returns the direct buffer to the pool.
+     *
+     * @param buf  direct buffer taken from the pool
+     */
+    public void release(ByteBuffer buf) {
+        if(buf != null && buf.isDirect() && buf.capacity() == bufferSize) {
+            directBuffers.offer(buf);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides {@link MessageDigest} instances for a digest algorithm,
+ * one per thread. Since the instances are never shared between threads,
+ * hashing does not require any locking and concurrent hashing scales
+ * with the number of threads.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class DigestPool {
+
+    public static final String SHA1 = "SHA-1";
+
+    private static final ConcurrentMap<String, DigestPool> POOLS = new ConcurrentHashMap<String, DigestPool>();
+
+    /**
+     * Returns the digest pool for the specified algorithm.
+     *
+     * @param algorithm  digest algorithm name
+     * @return  digest pool for the algorithm
+     * @throws NoSuchAlgorithmException  if the algorithm is not available
+     */
+    public static DigestPool getInstance(String algorithm) throws NoSuchAlgorithmException {
+        if(algorithm == null) {
+            throw new IllegalArgumentException("algorithm is null");
+        }
+        DigestPool pool = POOLS.get(algorithm);
+        if(pool == null) {
+            // fail early if the algorithm is not supported
+            MessageDigest.getInstance(algorithm);
+            pool = new DigestPool(algorithm);
+            final DigestPool existing = POOLS.putIfAbsent(algorithm, pool);
+            if(existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    private final String algorithm;
+    private final ThreadLocal<MessageDigest> digests;
+
+    private DigestPool(final String algorithm) {
+        this.algorithm = algorithm;
+        digests = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the reset digest of the current thread.
+     * The digest must not be used by other threads and must not be used
+     * for two hashes at the same time.
+     *
+     * @return  the reset digest of the current thread
+     */
+    public MessageDigest getDigest() {
+        final MessageDigest digest = digests.get();
+        digest.reset();
+        return digest;
+    }
+}
@@ -22,17 +22,24 @@
 
 package org.wildfly.nest.util;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.zip.CRC32;
 
 /**
  * Various hash-related methods.
@@ -46,46 +53,134 @@ public class HashUtils {
 
     private static final char[] TABLE = "0123456789abcdef".toCharArray();
 
-    private static final MessageDigest DIGEST;
+    static final DigestPool SHA1;
     static {
         try {
-            DIGEST = MessageDigest.getInstance("SHA-1");
+            SHA1 = DigestPool.getInstance(DigestPool.SHA1);
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
     }
 
     public static byte[] hashFile(File file) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            updateDigest(DIGEST, file);
-            return DIGEST.digest();
+        return hashFile(file, SHA1);
+    }
+
+    /**
+     * Calculates the hash of the file or, in case of a directory, the hash
+     * of its content using the digest of the current thread.
+     *
+     * @param file  file or directory
+     * @param digests  digests to use
+     * @return  the hash
+     * @throws IOException  in case of a failure
+     */
+    public static byte[] hashFile(File file, DigestPool digests) throws IOException {
+        final MessageDigest digest = digests.getDigest();
+        updateDigest(digest, file);
+        return digest.digest();
+    }
+
+    /**
+     * Calculates the CRC-32 of the content of the file.
+     *
+     * @param file  the file
+     * @return  CRC-32 of the content of the file
+     * @throws IOException  in case of a failure
+     */
+    public static long crc32(File file) throws IOException {
+        return crc32(file, null);
+    }
+
+    /**
+     * Calculates the CRC-32 of the content of the file and, if the digest
+     * is not null, updates the digest with the content in the same pass.
+     *
+     * @param file  the file
+     * @param digest  digest to update or null
+     * @return  CRC-32 of the content of the file
+     * @throws IOException  in case of a failure
+     */
+    public static long crc32(File file, MessageDigest digest) throws IOException {
+        final CRC32 crc = new CRC32();
+        final InputStream is = new FileInputStream(file);
+        try {
+            crc32(is, crc, digest, null);
+        } finally {
+            IoUtils.safeClose(is);
         }
+        return crc.getValue();
     }
 
-    private static void updateDigest(MessageDigest digest, File file) throws IOException {
-        if (file.isDirectory()) {
-            File[] childList = file.listFiles();
-            if (childList != null) {
-                Map<String, File> sortedChildren = new TreeMap<String, File>();
-                for (File child : childList) {
-                    sortedChildren.put(child.getName(), child);
+    /**
+     * Reads the stream to the end updating the CRC-32 with its content and,
+     * if they are not null, updating the digest with the content and
+     * writing the content to the output stream.
+     *
+     * @param is  the stream to read, it is not closed
+     * @param crc  the CRC-32 to update
+     * @param digest  digest to update or null
+     * @param os  the stream to copy the content to or null
+     * @return  the number of bytes read
+     * @throws IOException  in case of a failure
+     */
+    public static long crc32(InputStream is, CRC32 crc, MessageDigest digest, OutputStream os) throws IOException {
+        final byte[] bytes = BufferPool.DEFAULT.getArray();
+        try {
+            long size = 0;
+            int read;
+            while ((read = is.read(bytes)) > -1) {
+                crc.update(bytes, 0, read);
+                if (digest != null) {
+                    digest.update(bytes, 0, read);
                 }
-                for (File child : sortedChildren.values()) {
-                    updateDigest(digest, child);
+                if (os != null) {
+                    os.write(bytes, 0, read);
                 }
+                size += read;
+            }
+            return size;
+        } finally {
+            BufferPool.DEFAULT.release(bytes);
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, File file) throws IOException {
+        final Path path = file.toPath();
+        updateDigest(digest, path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    /**
+     * Updates the digest with the content of the file or, in case of
+     * a directory, with the content of its children in the order of their
+     * names. The types of the children come with the attributes returned by
+     * listing the directory, so they are not examined one more time.
+     */
+    private static void updateDigest(MessageDigest digest, Path path, BasicFileAttributes attrs) throws IOException {
+        if (attrs.isDirectory()) {
+            final Map<String, BasicFileAttributes> sortedChildren = new TreeMap<String, BasicFileAttributes>();
+            Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path child, BasicFileAttributes childAttrs) {
+                    sortedChildren.put(child.getFileName().toString(), childAttrs);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            for (Map.Entry<String, BasicFileAttributes> child : sortedChildren.entrySet()) {
+                updateDigest(digest, path.resolve(child.getKey()), child.getValue());
             }
         } else {
-            BufferedInputStream bis = null;
+            InputStream is = null;
+            final byte[] bytes = BufferPool.DEFAULT.getArray();
             try {
-                bis = new BufferedInputStream(new FileInputStream(file));
-                byte[] bytes = new byte[8192];
+                is = new FileInputStream(path.toFile());
                 int read;
-                while ((read = bis.read(bytes)) > -1) {
+                while ((read = is.read(bytes)) > -1) {
                     digest.update(bytes, 0, read);
                 }
             } finally {
-                IoUtils.safeClose(bis);
+                IoUtils.safeClose(is);
+                BufferPool.DEFAULT.release(bytes);
             }
         }
     }
@@ -105,15 +200,24 @@ public class HashUtils {
     }
 
     public static byte[] copyAndGetHash(final InputStream is, final OutputStream os) throws IOException {
-        byte[] sha1Bytes;
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            BufferedInputStream bis = new BufferedInputStream(is);
-            DigestOutputStream dos = new DigestOutputStream(os, DIGEST);
-            IoUtils.copyStream(bis, dos);
-            sha1Bytes = DIGEST.digest();
-        }
-        return sha1Bytes;
+        return copyAndGetHash(is, os, SHA1);
+    }
+
+    /**
+     * Copies the input stream to the output stream calculating the hash
+     * of the copied bytes using the digest of the current thread.
+     *
+     * @param is  input stream
+     * @param os  output stream
+     * @param digests  digests to use
+     * @return  the hash of the copied bytes
+     * @throws IOException  in case of a failure
+     */
+    public static byte[] copyAndGetHash(final InputStream is, final OutputStream os, DigestPool digests) throws IOException {
+        final MessageDigest digest = digests.getDigest();
+        DigestOutputStream dos = new DigestOutputStream(os, digest);
+        IoUtils.copyStream(is, dos);
+        return digest.digest();
     }
 
     /**
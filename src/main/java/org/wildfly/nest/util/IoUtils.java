@@ -42,8 +42,6 @@ public class IoUtils {
 
     public static byte[] NO_CONTENT = new byte[0];
 
-    private static final int DEFAULT_BUFFER_SIZE = 65536;
-
     /**
      * Copy input stream to output stream and close them both
      *
@@ -54,7 +52,7 @@ public class IoUtils {
      */
     public static void copyStreamAndClose(InputStream is, OutputStream os) throws IOException {
         try {
-            copyStream(is, os, DEFAULT_BUFFER_SIZE);
+            copyStream(is, os);
             // throw an exception if the close fails since some data might be lost
             is.close();
             os.close();
@@ -74,7 +72,12 @@ public class IoUtils {
      * @throws IOException for any error
      */
     public static void copyStream(InputStream is, OutputStream os) throws IOException {
-        copyStream(is, os, DEFAULT_BUFFER_SIZE);
+        final byte[] buff = BufferPool.DEFAULT.getArray();
+        try {
+            copyStream(is, os, buff);
+        } finally {
+            BufferPool.DEFAULT.release(buff);
+        }
     }
 
     /**
@@ -82,18 +85,17 @@ public class IoUtils {
      *
      * @param is input stream
      * @param os output stream
-     * @param bufferSize the buffer size to use
+     * @param buff the buffer to use
      *
      * @throws IOException for any error
      */
-    private static void copyStream(InputStream is, OutputStream os, int bufferSize) throws IOException {
+    private static void copyStream(InputStream is, OutputStream os, byte[] buff) throws IOException {
         if (is == null) {
             throw new IllegalArgumentException("Input stream is null");
         }
         if (os == null) {
             throw new IllegalArgumentException("Output stream is null");
         }
-        byte[] buff = new byte[bufferSize];
         int rc;
         while ((rc = is.read(buff)) != -1)
             os.write(buff, 0, rc);
@@ -134,12 +136,47 @@ public class IoUtils {
     }
 
     public static byte[] copy(final InputStream is, final File target) throws IOException {
+        return copy(is, target, HashUtils.SHA1);
+    }
+
+    /**
+     * Copies the input stream to the target file. If the digests are not
+     * null, the method returns the hash of the copied content, otherwise
+     * the content is not hashed and the method returns null.
+     *
+     * @param is  input stream
+     * @param target  target file
+     * @param digests  digests to hash the content with or null
+     * @return  the hash of the content or null
+     * @throws IOException  in case of a failure
+     */
+    public static byte[] copy(final InputStream is, final File target, DigestPool digests) throws IOException {
         if (!target.getParentFile().exists()) {
             target.getParentFile().mkdirs(); // Hmm
         }
+        return write(is, target, digests);
+    }
+
+    /**
+     * Same as {@link #copy(InputStream, File, DigestPool)} except that
+     * the parent directory of the target file is expected to exist
+     * and is not checked.
+     *
+     * @param is  input stream
+     * @param target  target file
+     * @param digests  digests to hash the content with or null
+     * @return  the hash of the content or null
+     * @throws IOException  in case of a failure
+     */
+    public static byte[] write(final InputStream is, final File target, DigestPool digests) throws IOException {
         final OutputStream os = new FileOutputStream(target);
         try {
-            byte[] nh = HashUtils.copyAndGetHash(is, os);
+            byte[] nh = null;
+            if (digests == null) {
+                copyStream(is, os);
+            } else {
+                nh = HashUtils.copyAndGetHash(is, os, digests);
+            }
             os.close();
             return nh;
         } finally {
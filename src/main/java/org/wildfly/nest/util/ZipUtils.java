@@ -29,6 +29,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Calendar;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -42,6 +43,108 @@ public class ZipUtils {
 
     public static final String ENTRY_SEPARATOR = "/";
     public static final String ROOT_ENTRY_NAME = "." + ENTRY_SEPARATOR;
+    /** the entry holding the attachments written after all the other entries */
+    public static final String TRAILER_ENTRY_NAME = ROOT_ENTRY_NAME + "trailer";
+    /** the prefix of the entries holding the attachments too long for the extra field */
+    public static final String ATTACHMENTS_ENTRY_PREFIX = ROOT_ENTRY_NAME + "attachments" + ENTRY_SEPARATOR;
+
+    /** ZIP extra field header id under which nest attachments are stored */
+    public static final int NEST_EXTRA_HEADER_ID = 0x4e53;
+    /** the maximum length of the data a single ZIP extra field can hold */
+    public static final int MAX_EXTRA_DATA_LENGTH = 0xFFFF - 4;
+
+    /**
+     * Wraps the attachment bytes into a ZIP extra field with the
+     * {@link #NEST_EXTRA_HEADER_ID} header, as required by the ZIP format
+     * (and validated by the recent JDK ZIP implementations).
+     *
+     * @param data  attachment bytes
+     * @return  extra field bytes
+     * @throws IOException  if the data does not fit into the extra field
+     */
+    public static byte[] toExtraField(byte[] data) throws IOException {
+        if(data.length > MAX_EXTRA_DATA_LENGTH) {
+            throw new IOException("Attachments length " + data.length + " exceeds the ZIP extra field limit of " + MAX_EXTRA_DATA_LENGTH);
+        }
+        final byte[] extra = new byte[data.length + 4];
+        extra[0] = (byte) NEST_EXTRA_HEADER_ID;
+        extra[1] = (byte) (NEST_EXTRA_HEADER_ID >> 8);
+        extra[2] = (byte) data.length;
+        extra[3] = (byte) (data.length >> 8);
+        System.arraycopy(data, 0, extra, 4, data.length);
+        return extra;
+    }
+
+    /**
+     * Returns the data of the nest attachments extra field or null
+     * if the extra bytes do not include the nest extra field.
+     *
+     * <p>The nests built before the attachments were wrapped into the nest
+     * extra field stored the attachments as the whole extra. The header ids
+     * and lengths read from such an extra do not add up to its length,
+     * in which case the extra itself is returned.
+     *
+     * @param extra  ZIP entry extra bytes, may be null
+     * @return  nest attachments bytes or null
+     */
+    public static byte[] fromExtraField(byte[] extra) {
+        if(extra == null) {
+            return null;
+        }
+        int i = 0;
+        while(i + 4 <= extra.length) {
+            final int id = (extra[i] & 0xff) | (extra[i + 1] & 0xff) << 8;
+            final int length = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if(i + 4 + length > extra.length) {
+                return extra;
+            }
+            i += 4;
+            if(id == NEST_EXTRA_HEADER_ID) {
+                final byte[] data = new byte[length];
+                System.arraycopy(extra, i, data, 0, length);
+                return data;
+            }
+            i += length;
+        }
+        return i == extra.length ? null : extra;
+    }
+
+    /** the calendars converting the times of the entries, reused by the building threads */
+    private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return Calendar.getInstance();
+        }
+    };
+
+    /**
+     * Converts Java time to the MS-DOS date and time format used by ZIP.
+     *
+     * @param time  milliseconds since the epoch
+     * @return  MS-DOS date and time
+     */
+    public static long toDosTime(long time) {
+        final Calendar c = CALENDAR.get();
+        c.setTimeInMillis(time);
+        final int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        // the year is shifted as a long, since from 2044 on it reaches the sign bit of an int
+        return (long) (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Checks whether the entry holds the nest metadata as opposed to content.
+     * The nest metadata entries are the root entry and the entries under it.
+     *
+     * @param entryName  ZIP entry name
+     * @return  true if the entry holds the nest metadata
+     */
+    public static boolean isNestMetadata(String entryName) {
+        return entryName.startsWith(ROOT_ENTRY_NAME);
+    }
 
     public static void zip(File sourceDir, File zipFile) {
         try {
@@ -161,6 +264,9 @@ public class ZipUtils {
         while(entries.hasMoreElements()) {
             final ZipEntry entry = entries.nextElement();
             final String name = entry.getName();
+            if(isNestMetadata(name)) {
+                continue;
+            }
             final File current = new File(targetDir, name);
             if(entry.isDirectory()) {
                 current.mkdirs();
@@ -0,0 +1,50 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * Stores the attachments longer than {@link #INLINE_LIMIT} in dedicated
+ * compressed metadata entries of the nest instead of the ZIP extra field
+ * of the entry they belong to, which can't hold more than 64 KB.
+ * The extra field then holds only the name of the metadata entry.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface AttachmentEntryWriter {
+
+    /** the longest attachment stored in the extra field of its entry */
+    int INLINE_LIMIT = 8192;
+
+    /**
+     * Stores the attachment in a metadata entry.
+     *
+     * @param handlerId  the id of the handler the attachment belongs to
+     * @param attachment  the attachment bytes
+     * @return  the name of the metadata entry or null if the attachment
+     *          should be stored in the extra field
+     * @throws NestException  in case of a failure
+     */
+    String write(String handlerId, byte[] attachment) throws NestException;
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * Cursor over the compact entry attachments written with
+ * {@link AttachmentOutput}. The instance is reset and reused for every
+ * entry, reading the attachments does not copy the bytes.
+ * An instance must not be shared between threads.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class AttachmentInput {
+
+    private byte[] bytes;
+    private int pos;
+    private int limit;
+    private StringTable strings;
+
+    /**
+     * Positions the input at the beginning of the range of the bytes.
+     *
+     * @param strings  the table to look up the strings in or null
+     * @param bytes  the bytes to read
+     * @param offset  the offset of the first byte to read
+     * @param length  the number of bytes to read
+     */
+    public void reset(StringTable strings, byte[] bytes, int offset, int length) {
+        if(offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("The range " + offset + "+" + length + " is out of bounds " + bytes.length);
+        }
+        this.strings = strings;
+        this.bytes = bytes;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    public boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    public int readByte() throws NestException {
+        if(pos >= limit) {
+            throw new NestException("Unexpected end of attachment");
+        }
+        return bytes[pos++] & 0xff;
+    }
+
+    public int readVarInt() throws NestException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            final int b = readByte();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0) {
+                if(value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new NestException("Malformed varint in attachment");
+    }
+
+    /**
+     * Reads the index of a string and returns the string from the table.
+     *
+     * @return  the string
+     * @throws NestException  in case the index is not in the table
+     */
+    public String readString() throws NestException {
+        final int index = readVarInt();
+        if(strings == null) {
+            throw new NestException("The nest does not include a string table");
+        }
+        return strings.get(index);
+    }
+
+    /**
+     * Reads a string written with {@link AttachmentOutput#writeUTF8(String)}.
+     *
+     * @return  the string
+     * @throws NestException  in case of malformed bytes
+     */
+    public String readUTF8() throws NestException {
+        return readUTF8(readVarInt());
+    }
+
+    String readUTF8(int length) throws NestException {
+        final int start = pos;
+        skip(length);
+        return new String(bytes, start, length, StringTable.UTF_8);
+    }
+
+    public void skip(int length) throws NestException {
+        if(length < 0 || length > limit - pos) {
+            throw new NestException("The length of the attachment is bigger than the available count.");
+        }
+        pos += length;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    void limit(int limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.util.Arrays;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * Growable buffer the compact entry attachments are encoded into.
+ * The numbers are written as unsigned varints (seven bits per byte,
+ * the least significant group first) and the strings of the
+ * {@link StringTable} as the varint indexes of the strings.
+ *
+ * <p>The buffer is reset and reused for every entry, so once it has grown
+ * to the size of the largest attachments the only allocation per entry
+ * is the resulting byte array. An instance must not be shared between threads.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class AttachmentOutput {
+
+    private byte[] buf = new byte[128];
+    private int size;
+    private StringTable strings;
+
+    /**
+     * Discards the written bytes and sets the table the strings should be
+     * looked up in.
+     *
+     * @param strings  the string table or null
+     */
+    public void reset(StringTable strings) {
+        this.strings = strings;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Discards the bytes written after the position.
+     *
+     * @param size  the position to truncate the buffer to
+     */
+    public void truncate(int size) {
+        if(size < 0 || size > this.size) {
+            throw new IllegalArgumentException("size " + size + " is out of bounds " + this.size);
+        }
+        this.size = size;
+    }
+
+    public AttachmentOutput writeByte(int b) {
+        ensureCapacity(1);
+        buf[size++] = (byte) b;
+        return this;
+    }
+
+    public AttachmentOutput writeVarInt(int value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("value is negative: " + value);
+        }
+        ensureCapacity(5);
+        while((value & ~0x7f) != 0) {
+            buf[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Writes the index of the string in the string table.
+     *
+     * @param str  the string
+     * @return  this output
+     * @throws NestException  in case the string is not in the table
+     */
+    public AttachmentOutput writeString(String str) throws NestException {
+        final int index = strings == null ? -1 : strings.indexOf(str);
+        if(index < 0) {
+            throw new NestException("String is missing from the string table: " + str);
+        }
+        return writeVarInt(index);
+    }
+
+    /**
+     * Writes the length of the UTF-8 form of the string followed by its bytes,
+     * for the strings that are not worth sharing.
+     *
+     * @param str  the string
+     * @return  this output
+     */
+    public AttachmentOutput writeUTF8(String str) {
+        return writeBytes(str.getBytes(StringTable.UTF_8));
+    }
+
+    /**
+     * Writes the length of the bytes followed by the bytes.
+     *
+     * @param bytes  the bytes
+     * @return  this output
+     */
+    public AttachmentOutput writeBytes(byte[] bytes) {
+        writeVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    /**
+     * Inserts the number of bytes written after the mark before them,
+     * framing what has been written since the mark.
+     *
+     * @param mark  the size of the output before the framed bytes were written
+     */
+    void insertLength(int mark) {
+        final int length = size - mark;
+        int lengthSize = 1;
+        for(int i = length >>> 7; i != 0; i >>>= 7) {
+            ++lengthSize;
+        }
+        ensureCapacity(lengthSize);
+        System.arraycopy(buf, mark, buf, mark + lengthSize, length);
+        final int end = size + lengthSize;
+        size = mark;
+        writeVarInt(length);
+        size = end;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    byte[] toByteArray(int from) {
+        return Arrays.copyOfRange(buf, from, size);
+    }
+
+    private void ensureCapacity(int length) {
+        if(size + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + length));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildContext;
+import org.wildfly.nest.build.NestEntrySource;
+import org.wildfly.nest.expand.NestExpandContext;
+
+/**
+ * Entry attachment handler encoding its attachment directly into the
+ * shared {@link AttachmentOutput} and referring to the strings repeated
+ * across the entries by their indexes in the {@link StringTable} of the nest.
+ *
+ * <p>The byte array methods of {@link EntryAttachmentHandler} are used
+ * only for the nests that were built without a string table.
+ *
+ * @author Alexey Loubyansky
+ */
+public interface CompactEntryAttachmentHandler extends EntryAttachmentHandler {
+
+    /**
+     * Adds the strings the attachment of the entry will refer to.
+     * Called for every entry of the nest before anything is written.
+     *
+     * @param ctx  build context
+     * @param entry  the entry
+     * @param strings  the string table of the nest
+     * @throws NestException  in case of a failure
+     */
+    void addStrings(NestBuildContext ctx, NestEntrySource entry, StringTable strings) throws NestException;
+
+    /**
+     * Writes the attachment of the entry.
+     *
+     * @param ctx  build context
+     * @param entry  the entry
+     * @param out  the output to write the attachment to
+     * @return  false if the entry does not have the attachment
+     * @throws NestException  in case of a failure
+     */
+    boolean write(NestBuildContext ctx, NestEntrySource entry, AttachmentOutput out) throws NestException;
+
+    /**
+     * Reads the attachment of an entry. The input is limited to the
+     * bytes of the attachment.
+     *
+     * @param ctx  expand context
+     * @param in  the attachment input
+     * @throws NestException  in case of a failure
+     */
+    void read(NestExpandContext ctx, AttachmentInput in) throws NestException;
+}
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildContext;
+import org.wildfly.nest.expand.NestExpandContext;
+
+/**
+ * Announces the digest algorithm of the {@link ContentManifest} in the
+ * root entry of the nest. The manifest itself is written after the entries,
+ * so a nest expanded while it is being read (i.e. from a stream) would
+ * otherwise not know how to hash the entries before the manifest arrives.
+ * The handler sets an empty manifest with the announced algorithm which is
+ * replaced with the actual one once the trailing attachments are read.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ContentDigestAttachmentHandler implements NestAttachmentHandler {
+
+    private static final String ID = "CONTENT_DIGEST";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public void fromByteArray(NestExpandContext ctx, byte[] bytes) throws NestException {
+        assert bytes != null : "bytes is null";
+        if(ctx.getContentManifest() != null) {
+            // the manifest has already been read
+            return;
+        }
+        final String algorithm = new String(bytes, UTF_8);
+        try {
+            ctx.setContentManifest(ContentManifest.create(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new NestException("Content manifest digest algorithm is not available: " + algorithm, e);
+        }
+    }
+
+    @Override
+    public byte[] toByteArray(NestBuildContext ctx) throws NestException {
+        final ContentManifest manifest = ctx.getContentManifest();
+        return manifest == null ? null : manifest.getAlgorithm().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.util.DigestPool;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Digests of the content of the file entries in the nest computed
+ * when the nest was built, mapped by the entry nest paths.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ContentManifest {
+
+    public static ContentManifest create(String algorithm) throws NoSuchAlgorithmException {
+        return new ContentManifest(DigestPool.getInstance(algorithm));
+    }
+
+    public static ContentManifest fromByteArray(byte[] bytes) throws NestException {
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            final String algorithm = dis.readUTF();
+            final ContentManifest manifest;
+            try {
+                manifest = create(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new NestException("Content manifest digest algorithm is not available: " + algorithm, e);
+            }
+            final int count = dis.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String nestPath = dis.readUTF();
+                final byte[] digest = new byte[dis.readUnsignedByte()];
+                dis.readFully(digest);
+                manifest.add(nestPath, digest);
+            }
+            return manifest;
+        } catch (IOException e) {
+            throw new NestException("Failed to read content manifest", e);
+        } finally {
+            IoUtils.safeClose(dis);
+        }
+    }
+
+    private final DigestPool digests;
+    private final Map<String, byte[]> digestsByPath = new LinkedHashMap<String, byte[]>();
+
+    private ContentManifest(DigestPool digests) {
+        this.digests = digests;
+    }
+
+    public String getAlgorithm() {
+        return digests.getAlgorithm();
+    }
+
+    /**
+     * Digests to hash the content of the entries with.
+     *
+     * @return  digests to hash the content of the entries with
+     */
+    public DigestPool getDigests() {
+        return digests;
+    }
+
+    public void add(String nestPath, byte[] digest) {
+        if(nestPath == null) {
+            throw new IllegalArgumentException("nestPath is null");
+        }
+        if(digest == null) {
+            throw new IllegalArgumentException("digest is null");
+        }
+        digestsByPath.put(nestPath, digest);
+    }
+
+    /**
+     * Returns the digest of the content of the entry or null
+     * if the entry is not in the manifest.
+     *
+     * @param nestPath  entry nest path
+     * @return  the digest of the content of the entry or null
+     */
+    public byte[] getDigest(String nestPath) {
+        return digestsByPath.get(nestPath);
+    }
+
+    public Collection<String> getNestPaths() {
+        return Collections.unmodifiableSet(digestsByPath.keySet());
+    }
+
+    /**
+     * Checks whether the digest matches the one in the manifest for the entry.
+     *
+     * @param nestPath  entry nest path
+     * @param digest  digest of the expanded content
+     * @throws NestException  if the entry is not in the manifest or the digests don't match
+     */
+    public void verify(String nestPath, byte[] digest) throws NestException {
+        final byte[] expected = digestsByPath.get(nestPath);
+        if(expected == null) {
+            throw new NestException("Entry " + nestPath + " is missing from the content manifest");
+        }
+        if(!MessageDigest.isEqual(expected, digest)) {
+            throw new NestException("Content of " + nestPath + " does not match the content manifest");
+        }
+    }
+
+    public byte[] toByteArray() throws NestException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(bytes);
+        try {
+            dos.writeUTF(digests.getAlgorithm());
+            dos.writeInt(digestsByPath.size());
+            for (Map.Entry<String, byte[]> entry : digestsByPath.entrySet()) {
+                dos.writeUTF(entry.getKey());
+                dos.writeByte(entry.getValue().length);
+                dos.write(entry.getValue());
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new NestException("Failed to write content manifest", e);
+        } finally {
+            IoUtils.safeClose(dos);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildContext;
+import org.wildfly.nest.expand.NestExpandContext;
+
+/**
+ * Writes and reads the {@link ContentManifest} of the nest.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ContentManifestAttachmentHandler implements NestAttachmentHandler {
+
+    public static final String ID = "CONTENT_MANIFEST";
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public void fromByteArray(NestExpandContext ctx, byte[] bytes) throws NestException {
+        assert bytes != null : "bytes is null";
+        ctx.setContentManifest(ContentManifest.fromByteArray(bytes));
+    }
+
+    @Override
+    public byte[] toByteArray(NestBuildContext ctx) throws NestException {
+        final ContentManifest manifest = ctx.getContentManifest();
+        return manifest == null ? null : manifest.toByteArray();
+    }
+}
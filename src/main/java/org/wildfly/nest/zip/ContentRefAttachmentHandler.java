@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.nio.charset.Charset;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildContext;
+import org.wildfly.nest.build.NestEntrySource;
+import org.wildfly.nest.expand.NestExpandContext;
+import org.wildfly.nest.util.ZipUtils;
+
+/**
+ * Marks an entry of a deduplicated nest whose content is identical to
+ * the content of another (earlier) entry of the nest. Such an entry is
+ * stored without data, the attachment holds the name of the entry
+ * the content should be taken from when the nest is expanded.
+ *
+ * <p>The duplicates are found while the files are read, i.e. after
+ * the entry attachments of the added entries have been written, so the
+ * builder appends the attachment to the entry attachments itself using
+ * {@link #append(StringTable, byte[], String)} and the expanders look it up
+ * with {@link #getTarget(StringTable, byte[])}. The name of the target is
+ * unique to the entry, so it is not added to the string table.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ContentRefAttachmentHandler implements CompactEntryAttachmentHandler {
+
+    public static final String ID = "CONTENT_REF";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Appends the attachment referencing the target entry to the entry
+     * attachments.
+     *
+     * @param strings  the string table of the nest or null if the nest
+     *                 is built without one
+     * @param attachments  entry attachments or null
+     * @param target  the name of the entry holding the content
+     * @return  entry attachments including the reference
+     * @throws NestException  in case of a failure
+     */
+    public static byte[] append(StringTable strings, byte[] attachments, String target) throws NestException {
+        if(target == null) {
+            throw new IllegalArgumentException("target is null");
+        }
+        return EntryAttachments.append(strings, attachments, ID, target.getBytes(UTF_8));
+    }
+
+    /**
+     * Returns the name of the entry holding the content of the entry
+     * with the extra field or null if the entry holds its own content.
+     *
+     * @param strings  the string table of the nest or null if the nest
+     *                 was built without one
+     * @param extra  ZIP extra field of the entry, may be null
+     * @return  the name of the entry holding the content or null
+     * @throws NestException  in case the attachments could not be read
+     */
+    public static String getTarget(StringTable strings, byte[] extra) throws NestException {
+        if(extra == null || extra.length == 0) {
+            return null;
+        }
+        if(strings != null) {
+            final AttachmentInput in = new AttachmentInput();
+            if(!EntryAttachments.find(strings, ZipUtils.fromExtraField(extra), ID, in)) {
+                return null;
+            }
+            return in.readUTF8(in.limit() - in.position());
+        }
+        final byte[] bytes = NestAttachments.find(ZipUtils.fromExtraField(extra), ID);
+        return bytes == null ? null : new String(bytes, UTF_8);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public void fromByteArray(NestExpandContext ctx, byte[] bytes) throws NestException {
+        // the references are resolved by the expanders per entry
+    }
+
+    @Override
+    public byte[] toByteArray(NestBuildContext ctx, NestEntrySource entry) throws NestException {
+        // the references are appended by the builder once the duplicates are found
+        return null;
+    }
+
+    @Override
+    public void addStrings(NestBuildContext ctx, NestEntrySource entry, StringTable strings) throws NestException {
+    }
+
+    @Override
+    public boolean write(NestBuildContext ctx, NestEntrySource entry, AttachmentOutput out) throws NestException {
+        return false;
+    }
+
+    @Override
+    public void read(NestExpandContext ctx, AttachmentInput in) throws NestException {
+    }
+}
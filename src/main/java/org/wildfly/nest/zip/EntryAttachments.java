@@ -28,8 +28,11 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.wildfly.nest.NestException;
@@ -44,7 +47,9 @@ import org.wildfly.nest.util.IoUtils;
  */
 public class EntryAttachments {
 
-    public static final EntryAttachments DEFAULT = create().add(new EntryLocationsAttachmentHandler());
+    public static final EntryAttachments DEFAULT = create()
+            .add(new EntryLocationsAttachmentHandler())
+            .add(new ContentRefAttachmentHandler());
 
     public static EntryAttachments create() {
         return new EntryAttachments();
@@ -74,12 +79,185 @@ public class EntryAttachments {
         return this;
     }
 
-    @SuppressWarnings("resource")
+    private List<CompactEntryAttachmentHandler> getCompactHandlers() {
+        final List<CompactEntryAttachmentHandler> compact = new ArrayList<CompactEntryAttachmentHandler>(handlers.size());
+        for (EntryAttachmentHandler handler : handlers.values()) {
+            if (handler instanceof CompactEntryAttachmentHandler) {
+                compact.add((CompactEntryAttachmentHandler) handler);
+            }
+        }
+        return compact;
+    }
+
+    /**
+     * Collects the handler ids and the strings the compact handlers will
+     * refer to for all the entries of the nest into a string table.
+     *
+     * @param ctx  build context
+     * @return  the string table of the nest
+     * @throws NestException  in case of a failure
+     */
+    public StringTable collectStrings(NestBuildContext ctx) throws NestException {
+        final StringTable strings = StringTable.create();
+        final List<String> ids = new ArrayList<String>(handlers.keySet());
+        Collections.sort(ids);
+        for (String id : ids) {
+            strings.add(id);
+        }
+        strings.add(NestAttachments.EXTERNAL_ID);
+        final List<CompactEntryAttachmentHandler> compact = getCompactHandlers();
+        if (!compact.isEmpty()) {
+            for (NestEntrySource entry : ctx.getEntries()) {
+                for (CompactEntryAttachmentHandler handler : compact) {
+                    handler.addStrings(ctx, entry, strings);
+                }
+            }
+        }
+        return strings;
+    }
+
     public byte[] write(NestBuildContext ctx, NestEntrySource entry) throws NestException {
+        return write(ctx, entry, new AttachmentOutput());
+    }
+
+    /**
+     * Writes the attachments of the entry as a sequence of the index of the
+     * handler id in the string table, the length of the attachment and
+     * the attachment itself. In case the context does not provide a string
+     * table, the attachments are written in the original format.
+     *
+     * @param ctx  build context
+     * @param entry  the entry
+     * @param out  reusable output
+     * @return  the attachments or null if the entry has none
+     * @throws NestException  in case of a failure
+     */
+    public byte[] write(NestBuildContext ctx, NestEntrySource entry, AttachmentOutput out) throws NestException {
+        return write(ctx, entry, out, null);
+    }
+
+    /**
+     * Writes the attachments of the entry like {@link #write(NestBuildContext, NestEntrySource, AttachmentOutput)}
+     * storing the ones longer than {@link AttachmentEntryWriter#INLINE_LIMIT}
+     * in metadata entries.
+     *
+     * @param ctx  build context
+     * @param entry  the entry
+     * @param out  reusable output
+     * @param entries  metadata entry writer or null to write all the
+     *                 attachments inline
+     * @return  the attachments or null if the entry has none
+     * @throws NestException  in case of a failure
+     */
+    public byte[] write(NestBuildContext ctx, NestEntrySource entry, AttachmentOutput out, AttachmentEntryWriter entries) throws NestException {
 
         if (handlers.isEmpty()) {
             return null;
         }
+        final StringTable strings = ctx.getStringTable();
+        if (strings == null) {
+            return writeLegacy(ctx, entry);
+        }
+
+        out.reset(strings);
+        for (EntryAttachmentHandler writer : handlers.values()) {
+            final int mark = out.size();
+            out.writeString(writer.getId());
+            final int start = out.size();
+            if (writer instanceof CompactEntryAttachmentHandler) {
+                if (!((CompactEntryAttachmentHandler) writer).write(ctx, entry, out)) {
+                    out.truncate(mark);
+                    continue;
+                }
+                if (entries != null && out.size() - start > AttachmentEntryWriter.INLINE_LIMIT
+                        && writeExternal(writer.getId(), out.toByteArray(start), out, mark, entries)) {
+                    continue;
+                }
+                out.insertLength(start);
+            } else {
+                final byte[] bytes = writer.toByteArray(ctx, entry);
+                if (bytes == null) {
+                    out.truncate(mark);
+                    continue;
+                }
+                if (entries != null && bytes.length > AttachmentEntryWriter.INLINE_LIMIT
+                        && writeExternal(writer.getId(), bytes, out, mark, entries)) {
+                    continue;
+                }
+                out.writeBytes(bytes);
+            }
+        }
+        return out.size() == 0 ? null : out.toByteArray();
+    }
+
+    /**
+     * Stores the attachment in a metadata entry replacing what has been
+     * written for it after the mark with the reference to the entry.
+     */
+    private static boolean writeExternal(String id, byte[] attachment, AttachmentOutput out, int mark, AttachmentEntryWriter entries) throws NestException {
+        final String entryName = entries.write(id, attachment);
+        if (entryName == null) {
+            return false;
+        }
+        out.truncate(mark);
+        out.writeString(NestAttachments.EXTERNAL_ID);
+        final int start = out.size();
+        out.writeString(id).writeUTF8(entryName);
+        out.insertLength(start);
+        return true;
+    }
+
+    /**
+     * Appends an attachment to the already written attachments of an entry,
+     * for the attachments that become known only after the entry
+     * attachments have been written.
+     *
+     * @param strings  the string table of the nest or null if the nest
+     *                 is built without one
+     * @param attachments  entry attachments or null
+     * @param id  attachment handler id
+     * @param attachment  the attachment
+     * @return  entry attachments including the appended one
+     * @throws NestException  in case of a failure
+     */
+    public static byte[] append(StringTable strings, byte[] attachments, String id, byte[] attachment) throws NestException {
+        if(id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        if(attachment == null) {
+            throw new IllegalArgumentException("attachment is null");
+        }
+        if (strings == null) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream dos = new DataOutputStream(bytes);
+            try {
+                if (attachments != null) {
+                    dos.write(attachments);
+                }
+                dos.writeUTF(id);
+                dos.writeInt(attachment.length);
+                dos.write(attachment);
+            } catch (IOException e) {
+                throw new NestException("Failed to write bytes", e);
+            } finally {
+                IoUtils.safeClose(dos);
+            }
+            return bytes.toByteArray();
+        }
+        final AttachmentOutput out = new AttachmentOutput();
+        out.reset(strings);
+        out.writeString(id).writeBytes(attachment);
+        final byte[] appended = out.toByteArray();
+        if (attachments == null) {
+            return appended;
+        }
+        final byte[] bytes = Arrays.copyOf(attachments, attachments.length + appended.length);
+        System.arraycopy(appended, 0, bytes, attachments.length, appended.length);
+        return bytes;
+    }
+
+    @SuppressWarnings("resource")
+    private byte[] writeLegacy(NestBuildContext ctx, NestEntrySource entry) throws NestException {
 
         ByteArrayOutputStream bytesArray = null;
         DataOutputStream dos = null;
@@ -115,6 +293,34 @@ public class EntryAttachments {
     }
 
     public void read(NestExpandContext ctx, byte[] bytes) throws NestException {
+        read(ctx, bytes, new AttachmentInput());
+    }
+
+    /**
+     * Reads the attachments of an entry. In case the nest does not include
+     * a string table, the attachments are read in the original format.
+     *
+     * @param ctx  expand context
+     * @param bytes  the attachments
+     * @param in  reusable input
+     * @throws NestException  in case of a failure
+     */
+    public void read(NestExpandContext ctx, byte[] bytes, AttachmentInput in) throws NestException {
+        read(ctx, bytes, in, null);
+    }
+
+    /**
+     * Reads the attachments of an entry like {@link #read(NestExpandContext, byte[], AttachmentInput)},
+     * the ones stored in metadata entries are read from the entries
+     * when their handlers are about to process them.
+     *
+     * @param ctx  expand context
+     * @param bytes  the attachments
+     * @param in  reusable input
+     * @param entries  metadata entry reader or null
+     * @throws NestException  in case of a failure
+     */
+    public void read(NestExpandContext ctx, byte[] bytes, AttachmentInput in, AttachmentEntryReader entries) throws NestException {
 
         if (bytes == null || bytes.length == 0) {
             return;
@@ -122,6 +328,125 @@ public class EntryAttachments {
         if (handlers.isEmpty()) {
             return;
         }
+        final StringTable strings = ctx.getStringTable();
+        if (strings == null) {
+            readLegacy(ctx, bytes);
+            return;
+        }
+
+        in.reset(strings, bytes, 0, bytes.length);
+        while (in.hasRemaining()) {
+            final String id = in.readString();
+            final int length = in.readVarInt();
+            final int start = in.position();
+            in.skip(length);
+            final int end = in.position();
+            if (id.equals(NestAttachments.EXTERNAL_ID)) {
+                final int limit = in.limit();
+                in.reset(strings, bytes, start, length);
+                final String externalId = in.readString();
+                final String entryName = in.readUTF8();
+                in.reset(strings, bytes, end, limit - end);
+                final EntryAttachmentHandler reader = getHandler(externalId);
+                final byte[] external = NestAttachments.readExternal(externalId, entryName, entries);
+                if (reader instanceof CompactEntryAttachmentHandler) {
+                    final AttachmentInput externalIn = new AttachmentInput();
+                    externalIn.reset(strings, external, 0, external.length);
+                    ((CompactEntryAttachmentHandler) reader).read(ctx, externalIn);
+                } else {
+                    reader.fromByteArray(ctx, external);
+                }
+                continue;
+            }
+            final EntryAttachmentHandler reader = getHandler(id);
+            if (reader instanceof CompactEntryAttachmentHandler) {
+                final int limit = in.limit();
+                in.reset(strings, bytes, start, length);
+                ((CompactEntryAttachmentHandler) reader).read(ctx, in);
+                in.reset(strings, bytes, end, limit - end);
+            } else {
+                reader.fromByteArray(ctx, Arrays.copyOfRange(bytes, start, end));
+            }
+        }
+    }
+
+    /**
+     * Looks up the attachment with the specified id in the compact entry
+     * attachments without processing the rest of them.
+     *
+     * @param strings  the string table of the nest
+     * @param bytes  entry attachments
+     * @param id  attachment handler id
+     * @param in  input to position at the attachment
+     * @return  true if the attachment is present, in which case the input
+     *          is limited to the bytes of the attachment
+     * @throws NestException  in case the attachments could not be read
+     */
+    public static boolean find(StringTable strings, byte[] bytes, String id, AttachmentInput in) throws NestException {
+        return find(strings, bytes, id, in, null);
+    }
+
+    /**
+     * Looks up the attachment with the specified id in the compact entry
+     * attachments like {@link #find(StringTable, byte[], String, AttachmentInput)}
+     * reading it from its metadata entry, if it is stored in one.
+     *
+     * @param strings  the string table of the nest
+     * @param bytes  entry attachments
+     * @param id  attachment handler id
+     * @param in  input to position at the attachment
+     * @param entries  metadata entry reader or null
+     * @return  true if the attachment is present, in which case the input
+     *          is limited to the bytes of the attachment
+     * @throws NestException  in case the attachments could not be read
+     */
+    public static boolean find(StringTable strings, byte[] bytes, String id, AttachmentInput in, AttachmentEntryReader entries) throws NestException {
+
+        if(id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        if (bytes == null || bytes.length == 0) {
+            return false;
+        }
+        final int index = strings.indexOf(id);
+        if (index < 0) {
+            return false;
+        }
+
+        final int externalIndex = strings.indexOf(NestAttachments.EXTERNAL_ID);
+        in.reset(strings, bytes, 0, bytes.length);
+        while (in.hasRemaining()) {
+            final int nextIndex = in.readVarInt();
+            final int length = in.readVarInt();
+            final int start = in.position();
+            in.skip(length);
+            if (nextIndex == index) {
+                in.reset(strings, bytes, start, length);
+                return true;
+            }
+            if (nextIndex == externalIndex) {
+                final int end = in.position();
+                in.reset(strings, bytes, start, length);
+                if (in.readVarInt() == index) {
+                    final byte[] external = NestAttachments.readExternal(id, in.readUTF8(), entries);
+                    in.reset(strings, external, 0, external.length);
+                    return true;
+                }
+                in.reset(strings, bytes, end, bytes.length - end);
+            }
+        }
+        return false;
+    }
+
+    private EntryAttachmentHandler getHandler(String id) throws NestException {
+        final EntryAttachmentHandler handler = handlers.get(id);
+        if (handler == null) {
+            throw new NestException("Unrecognized handler id: " + id);
+        }
+        return handler;
+    }
+
+    private void readLegacy(NestExpandContext ctx, byte[] bytes) throws NestException {
 
         final ByteArrayInputStream bytesStream = new ByteArrayInputStream(bytes);
         final DataInputStream dis = new DataInputStream(bytesStream);
@@ -26,16 +26,21 @@ import java.io.IOException;
 
 import org.wildfly.nest.EntryLocation;
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
 import org.wildfly.nest.build.NestBuildContext;
 import org.wildfly.nest.build.NestEntrySource;
 import org.wildfly.nest.expand.NestExpandContext;
 import org.wildfly.nest.util.IoUtils;
 
 /**
+ * Writes the nest location of the entry as a byte of flags telling which of
+ * the name, relative-to and path of the location are present followed by
+ * the indexes of the names in the string table of the nest and the path,
+ * which is usually specific to the entry, in UTF-8.
  *
  * @author Alexey Loubyansky
  */
-public class EntryLocationsAttachmentHandler implements EntryAttachmentHandler {
+public class EntryLocationsAttachmentHandler implements CompactEntryAttachmentHandler {
 
     private static final String ID = "ENTRY_LOCATIONS";
 
@@ -43,29 +48,101 @@ public class EntryLocationsAttachmentHandler implements EntryAttachmentHandler {
     private static final byte RELATIVE_TO = 1;
     private static final byte PATH = 2;
 
+    private static final int HAS_NAME = 1 << NAME;
+    private static final int HAS_RELATIVE_TO = 1 << RELATIVE_TO;
+    private static final int HAS_PATH = 1 << PATH;
+
     @Override
     public String getId() {
         return ID;
     }
 
+    @Override
+    public void addStrings(NestBuildContext ctx, NestEntrySource entry, StringTable strings) throws NestException {
+        final EntryLocation nestLocation = entry.getNestEntry().getNestLocation();
+        if (nestLocation.getName() != null) {
+            strings.add(nestLocation.getName());
+        }
+        if (nestLocation.getRelativeTo() != null) {
+            strings.add(nestLocation.getRelativeTo());
+        }
+    }
+
+    @Override
+    public boolean write(NestBuildContext ctx, NestEntrySource entry, AttachmentOutput out) throws NestException {
+        final EntryLocation nestLocation = entry.getNestEntry().getNestLocation();
+        int flags = 0;
+        if (nestLocation.getName() != null) {
+            flags |= HAS_NAME;
+        }
+        if (nestLocation.getRelativeTo() != null) {
+            flags |= HAS_RELATIVE_TO;
+        }
+        if (nestLocation.getPath() != null) {
+            flags |= HAS_PATH;
+        }
+        if (flags == 0) {
+            return false;
+        }
+        final NestTraceListener trace = ctx.getTraceListener();
+        out.writeByte(flags);
+        if ((flags & HAS_NAME) != 0) {
+            out.writeString(nestLocation.getName());
+            trace(trace, "write location name", nestLocation.getName());
+        }
+        if ((flags & HAS_RELATIVE_TO) != 0) {
+            out.writeString(nestLocation.getRelativeTo());
+            trace(trace, "write location relative-to", nestLocation.getRelativeTo());
+        }
+        if ((flags & HAS_PATH) != 0) {
+            out.writeUTF8(nestLocation.getPath());
+            trace(trace, "write location path", nestLocation.getPath());
+        }
+        return true;
+    }
+
+    @Override
+    public void read(NestExpandContext ctx, AttachmentInput in) throws NestException {
+        final int flags = in.readByte();
+        if ((flags & ~(HAS_NAME | HAS_RELATIVE_TO | HAS_PATH)) != 0) {
+            throw new NestException("Unexpected nest location property flags " + flags);
+        }
+        final NestTraceListener trace = ctx.getTraceListener();
+        if ((flags & HAS_NAME) != 0) {
+            trace(trace, "read location name", in.readString());
+        }
+        if ((flags & HAS_RELATIVE_TO) != 0) {
+            trace(trace, "read location relative-to", in.readString());
+        }
+        if ((flags & HAS_PATH) != 0) {
+            if (trace != null) {
+                trace(trace, "read location path", in.readUTF8());
+            } else {
+                // the path is not used unless traced, so it is not decoded
+                in.skip(in.readVarInt());
+            }
+        }
+    }
+
     @Override
     public void fromByteArray(NestExpandContext ctx, byte[] bytes) throws NestException {
 
         assert bytes != null : "bytes is null";
 
+        final NestTraceListener trace = ctx.getTraceListener();
         final DataFromByteArray byteArray = DataFromByteArray.create(bytes);
         try {
             Byte type = byteArray.readByte();
             while (type != null) {
                 switch (type) {
                     case NAME:
-                        System.out.println("EntryAttachment.read nest location name " + byteArray.readUTF());
+                        trace(trace, "read location name", byteArray.readUTF());
                         break;
                     case RELATIVE_TO:
-                        System.out.println("EntryAttachment.read nest location relative-to " + byteArray.readUTF());
+                        trace(trace, "read location relative-to", byteArray.readUTF());
                         break;
                     case PATH:
-                        System.out.println("EntryAttachment.read nest location path " + byteArray.readUTF());
+                        trace(trace, "read location path", byteArray.readUTF());
                         break;
                     default:
                         throw new NestException("Unexpected nest location property type code " + type);
@@ -83,19 +160,20 @@ public class EntryLocationsAttachmentHandler implements EntryAttachmentHandler {
     public byte[] toByteArray(NestBuildContext ctx, NestEntrySource entry) throws NestException {
 
         final EntryLocation nestLocation = entry.getNestEntry().getNestLocation();
+        final NestTraceListener trace = ctx.getTraceListener();
         final DataToByteArray data = DataToByteArray.create();
         final byte[] bytes;
         try {
             if (nestLocation.getName() != null) {
                 data.writeByte(NAME).writeUTF(nestLocation.getName());
-                System.out.println("EntryAttachment.write location name " + nestLocation.getName());
+                trace(trace, "write location name", nestLocation.getName());
             }
             if (nestLocation.getRelativeTo() != null) {
                 data.writeByte(RELATIVE_TO).writeUTF(nestLocation.getRelativeTo());
-                System.out.println("EntryAttachment.write relative-to " + nestLocation.getRelativeTo());
+                trace(trace, "write location relative-to", nestLocation.getRelativeTo());
                 if (nestLocation.getPath() != null) {
                     data.writeByte(PATH).writeUTF(nestLocation.getPath());
-                    System.out.println("EntryAttachment.write path " + nestLocation.getPath());
+                    trace(trace, "write location path", nestLocation.getPath());
                 }
             }
         } catch (IOException e) {
@@ -106,4 +184,9 @@ public class EntryLocationsAttachmentHandler implements EntryAttachmentHandler {
         return bytes;
     }
 
+    private static void trace(NestTraceListener trace, String event, String value) {
+        if (trace != null) {
+            trace.trace(ID, event, value);
+        }
+    }
 }
@@ -43,7 +43,22 @@ import org.wildfly.nest.util.IoUtils;
  */
 public class NestAttachments {
 
-    public static final NestAttachments DEFAULT = create().add(new NestLocationsAttachmentHandler());
+    /**
+     * The id under which an attachment stored in a metadata entry is
+     * referenced: the id of its handler followed by the name of the entry.
+     */
+    static final String EXTERNAL_ID = "EXTERNAL_ATTACHMENT";
+
+    public static final NestAttachments DEFAULT = create()
+            .add(new NestLocationsAttachmentHandler())
+            .add(new ContentDigestAttachmentHandler())
+            .add(new StringTableAttachmentHandler());
+
+    /**
+     * Attachments that depend on the content of the entries and so are
+     * written after all the entries have been added to the nest.
+     */
+    public static final NestAttachments TRAILING = create().add(new ContentManifestAttachmentHandler());
 
     public static NestAttachments create() {
         return new NestAttachments();
@@ -73,8 +88,23 @@ public class NestAttachments {
         return this;
     }
 
-    @SuppressWarnings("resource")
     public byte[] write(NestBuildContext ctx) throws NestException {
+        return write(ctx, null);
+    }
+
+    /**
+     * Writes the attachments, storing the ones longer than
+     * {@link AttachmentEntryWriter#INLINE_LIMIT} in metadata entries,
+     * in which case the attachments include only the names of the entries.
+     *
+     * @param ctx  build context
+     * @param entries  metadata entry writer or null to write all the
+     *                 attachments inline
+     * @return  the attachments or null if there are none
+     * @throws NestException  in case of a failure
+     */
+    @SuppressWarnings("resource")
+    public byte[] write(NestBuildContext ctx, AttachmentEntryWriter entries) throws NestException {
 
         if (handlers.isEmpty()) {
             return null;
@@ -85,9 +115,9 @@ public class NestAttachments {
 
         try {
             for (NestAttachmentHandler writer : handlers.values()) {
-                final byte[] bytes = writer.toByteArray(ctx);
+                byte[] bytes = writer.toByteArray(ctx);
                 if (bytes != null) {
-                    final String id = writer.getId();
+                    String id = writer.getId();
                     if (id == null) {
                         throw new IllegalStateException("Attachment handler didn't its id: " + writer);
                     }
@@ -97,6 +127,14 @@ public class NestAttachments {
                         dos = new DataOutputStream(bytesArray);
                     }
 
+                    if (entries != null && bytes.length > AttachmentEntryWriter.INLINE_LIMIT) {
+                        final String entryName = entries.write(id, bytes);
+                        if (entryName != null) {
+                            bytes = externalRef(id, entryName);
+                            id = EXTERNAL_ID;
+                        }
+                    }
+
                     dos.writeUTF(id);
                     dos.writeInt(bytes.length);
                     if (bytes.length > 0) {
@@ -114,6 +152,19 @@ public class NestAttachments {
     }
 
     public void read(NestExpandContext ctx, byte[] bytes) throws NestException {
+        read(ctx, bytes, null);
+    }
+
+    /**
+     * Reads the attachments, the ones stored in metadata entries are read
+     * from the entries when their handlers are about to process them.
+     *
+     * @param ctx  expand context
+     * @param bytes  the attachments
+     * @param entries  metadata entry reader or null
+     * @throws NestException  in case of a failure
+     */
+    public void read(NestExpandContext ctx, byte[] bytes, AttachmentEntryReader entries) throws NestException {
 
         if (bytes == null || bytes.length == 0) {
             return;
@@ -128,11 +179,6 @@ public class NestAttachments {
 
             String id = readId(dis);
             while (id != null) {
-                final NestAttachmentHandler reader = handlers.get(id);
-                if (reader == null) {
-                    throw new NestException("Unrecognized handler id: " + id);
-                }
-
                 final int length = dis.readInt();
                 byte[] attachmentBytes;
                 if (length == 0) {
@@ -144,7 +190,14 @@ public class NestAttachments {
                     }
                     dis.readFully(attachmentBytes);
                 }
-                reader.fromByteArray(ctx, attachmentBytes);
+                if (id.equals(EXTERNAL_ID)) {
+                    final DataInputStream ref = new DataInputStream(new ByteArrayInputStream(attachmentBytes));
+                    id = ref.readUTF();
+                    final NestAttachmentHandler reader = getHandler(id);
+                    reader.fromByteArray(ctx, readExternal(id, ref.readUTF(), entries));
+                } else {
+                    getHandler(id).fromByteArray(ctx, attachmentBytes);
+                }
                 id = readId(dis);
             }
         } catch (IOException e) {
@@ -154,6 +207,100 @@ public class NestAttachments {
         }
     }
 
+    /**
+     * Looks up the attachment with the specified id in the serialized
+     * attachments without processing the rest of them.
+     *
+     * @param bytes  serialized attachments
+     * @param id  attachment handler id
+     * @return  the attachment bytes or null if the attachment is not present
+     * @throws NestException  in case the attachments could not be read
+     */
+    public static byte[] find(byte[] bytes, String id) throws NestException {
+        return find(bytes, id, null);
+    }
+
+    /**
+     * Looks up the attachment with the specified id in the serialized
+     * attachments without processing the rest of them. Of the attachments
+     * stored in metadata entries only the one looked up is read.
+     *
+     * @param bytes  serialized attachments
+     * @param id  attachment handler id
+     * @param entries  metadata entry reader or null
+     * @return  the attachment bytes or null if the attachment is not present
+     * @throws NestException  in case the attachments could not be read
+     */
+    public static byte[] find(byte[] bytes, String id, AttachmentEntryReader entries) throws NestException {
+
+        if(id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            String nextId = readId(dis);
+            while (nextId != null) {
+                final int length = dis.readInt();
+                if (dis.available() < length) {
+                    throw new NestException("The length of the attachment is bigger than the available count.");
+                }
+                if (nextId.equals(id)) {
+                    final byte[] attachmentBytes = new byte[length];
+                    dis.readFully(attachmentBytes);
+                    return attachmentBytes;
+                }
+                if (nextId.equals(EXTERNAL_ID)) {
+                    final String externalId = dis.readUTF();
+                    final String entryName = dis.readUTF();
+                    if (externalId.equals(id)) {
+                        return readExternal(id, entryName, entries);
+                    }
+                    nextId = readId(dis);
+                    continue;
+                }
+                dis.skipBytes(length);
+                nextId = readId(dis);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new NestException("Failed to read attachments", e);
+        } finally {
+            IoUtils.safeClose(dis);
+        }
+    }
+
+    private NestAttachmentHandler getHandler(String id) throws NestException {
+        final NestAttachmentHandler handler = handlers.get(id);
+        if (handler == null) {
+            throw new NestException("Unrecognized handler id: " + id);
+        }
+        return handler;
+    }
+
+    /**
+     * The attachment referencing the metadata entry the attachment
+     * of the handler is stored in.
+     */
+    static byte[] externalRef(String id, String entryName) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeUTF(id);
+        dos.writeUTF(entryName);
+        dos.close();
+        return bytes.toByteArray();
+    }
+
+    static byte[] readExternal(String id, String entryName, AttachmentEntryReader entries) throws NestException {
+        if (entries == null) {
+            throw new NestException("The " + id + " attachment is stored in " + entryName + " which can't be read here");
+        }
+        return entries.read(entryName);
+    }
+
     protected static String readId(DataInputStream dis) throws NestException {
         try {
             return dis.readUTF();
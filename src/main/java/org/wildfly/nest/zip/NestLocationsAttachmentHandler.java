@@ -27,6 +27,7 @@ import java.util.Collection;
 
 import org.wildfly.nest.EntryLocation;
 import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
 import org.wildfly.nest.build.NestBuildContext;
 import org.wildfly.nest.expand.NestExpandContext;
 import org.wildfly.nest.util.IoUtils;
@@ -53,19 +54,20 @@ public class NestLocationsAttachmentHandler implements NestAttachmentHandler {
 
         assert bytes != null : "bytes is null";
 
+        final NestTraceListener trace = ctx.getTraceListener();
         final DataFromByteArray byteArray = DataFromByteArray.create(bytes);
         try {
             Byte type = byteArray.readByte();
             while (type != null) {
                 switch (type) {
                     case NAME:
-                        System.out.println("NestAttachment.read nest location name " + byteArray.readUTF());
+                        trace(trace, "read location name", byteArray.readUTF());
                         break;
                     case RELATIVE_TO:
-                        System.out.println("NestAttachment.read nest location relative-to " + byteArray.readUTF());
+                        trace(trace, "read location relative-to", byteArray.readUTF());
                         break;
                     case PATH:
-                        System.out.println("NestAttachment.read nest location path " + byteArray.readUTF());
+                        trace(trace, "read location path", byteArray.readUTF());
                         break;
                     default:
                         throw new NestException("Unexpected nest location property type code " + type);
@@ -87,6 +89,7 @@ public class NestLocationsAttachmentHandler implements NestAttachmentHandler {
             return null;
         }
 
+        final NestTraceListener trace = ctx.getTraceListener();
         final DataToByteArray data = DataToByteArray.create();
         final byte[] bytes;
 
@@ -99,15 +102,15 @@ public class NestLocationsAttachmentHandler implements NestAttachmentHandler {
                     }
 
                     data.writeByte(NAME).writeUTF(location.getName());
-                    System.out.println("NestAttachment.write nest location name " + location.getName());
+                    trace(trace, "write location name", location.getName());
 
                     if (location.getRelativeTo() != null) {
                         data.writeByte(RELATIVE_TO).writeUTF(location.getRelativeTo());
-                        System.out.println("    relative-to " + location.getRelativeTo());
+                        trace(trace, "write location relative-to", location.getRelativeTo());
                     }
                     if (location.getPath() != null) {
                         data.writeByte(PATH).writeUTF(location.getPath());
-                        System.out.println("    path " + location.getPath());
+                        trace(trace, "write location path", location.getPath());
                     }
                 } catch (IOException e) {
                     throw new NestException("Failed to write nest location " + location, e);
@@ -119,4 +122,9 @@ public class NestLocationsAttachmentHandler implements NestAttachmentHandler {
         return bytes;
     }
 
+    private static void trace(NestTraceListener trace, String event, String value) {
+        if (trace != null) {
+            trace.trace(ID, event, value);
+        }
+    }
 }
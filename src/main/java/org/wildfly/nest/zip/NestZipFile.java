@@ -0,0 +1,575 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a nest ZIP file which, unlike {@link java.util.zip.ZipFile},
+ * provides access to the raw (i.e. compressed) data of the entries.
+ *
+ * <p>The central directory is memory-mapped and parsed into primitive arrays
+ * indexed by the position of the entry in the central directory; the names
+ * and the extra fields are read from the mapped central directory on demand,
+ * so no object is created per entry when the nest is opened.
+ * The data of the entries is read using positional reads of the file channel.
+ * All the reads are positional, so an instance can be shared by multiple threads.
+ *
+ * <p>A mapping can't be released explicitly, it is released when it is garbage
+ * collected after the file is closed.
+ *
+ * @author Alexey Loubyansky
+ */
+public class NestZipFile implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int ZIP64_LOCHDR = 20;
+    private static final int ZIP64_ENDHDR = 56;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    public static NestZipFile open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new NestZipFile(file, raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    /** the mapped central directory */
+    private final ByteBuffer cen;
+    private final int count;
+
+    /** the position of the central directory record of each entry in the mapped central directory */
+    private final int[] cenPositions;
+    private final long[] localHeaderOffsets;
+    private final long[] compressedSizes;
+    private final long[] sizes;
+
+    /** open addressing hash table of the entry indexes + 1 by the name */
+    private final int[] nameTable;
+    /** the entry indexes sorted by the name bytes, created on the first prefix lookup */
+    private volatile int[] sortedByName;
+
+    private NestZipFile(File file, RandomAccessFile raf) throws IOException {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+
+        final long length = channel.size();
+        final int tailLength = (int) Math.min(length, ENDHDR + 0xFFFF + ZIP64_LOCHDR);
+        final ByteBuffer tail = read(length - tailLength, tailLength);
+        int end = tailLength - ENDHDR;
+        while (end >= 0 && tail.getInt(end) != ENDSIG) {
+            --end;
+        }
+        if (end < 0) {
+            throw new ZipException("End of central directory not found in " + file.getAbsolutePath());
+        }
+        long entries = tail.getShort(end + 10) & 0xffff;
+        long cenSize = tail.getInt(end + 12) & ZIP64_MAGICVAL;
+        long cenOffset = tail.getInt(end + 16) & ZIP64_MAGICVAL;
+        if (end >= ZIP64_LOCHDR && tail.getInt(end - ZIP64_LOCHDR) == ZIP64_LOCSIG) {
+            final ByteBuffer zip64End = read(tail.getLong(end - ZIP64_LOCHDR + 8), ZIP64_ENDHDR);
+            if (zip64End.getInt(0) != ZIP64_ENDSIG) {
+                throw new ZipException("Invalid ZIP64 end of central directory in " + file.getAbsolutePath());
+            }
+            entries = zip64End.getLong(32);
+            cenSize = zip64End.getLong(40);
+            cenOffset = zip64End.getLong(48);
+        }
+        if (cenSize > Integer.MAX_VALUE || entries > Integer.MAX_VALUE / 2) {
+            throw new ZipException("The central directory of " + file.getAbsolutePath() + " is too large");
+        }
+
+        count = (int) entries;
+        cen = channel.map(FileChannel.MapMode.READ_ONLY, cenOffset, cenSize).order(ByteOrder.LITTLE_ENDIAN);
+        cenPositions = new int[count];
+        localHeaderOffsets = new long[count];
+        compressedSizes = new long[count];
+        sizes = new long[count];
+
+        int tableSize = 1;
+        while (tableSize < count * 2) {
+            tableSize <<= 1;
+        }
+        nameTable = new int[tableSize];
+
+        int pos = 0;
+        for (int i = 0; i < count; ++i) {
+            if (pos + CENHDR > cenSize || cen.getInt(pos) != CENSIG) {
+                throw new ZipException("Invalid central directory header in " + file.getAbsolutePath());
+            }
+            cenPositions[i] = pos;
+            compressedSizes[i] = cen.getInt(pos + 20) & ZIP64_MAGICVAL;
+            sizes[i] = cen.getInt(pos + 24) & ZIP64_MAGICVAL;
+            localHeaderOffsets[i] = cen.getInt(pos + 42) & ZIP64_MAGICVAL;
+            if (sizes[i] == ZIP64_MAGICVAL || compressedSizes[i] == ZIP64_MAGICVAL || localHeaderOffsets[i] == ZIP64_MAGICVAL) {
+                readZip64Extra(i);
+            }
+
+            final int nameLength = cen.getShort(pos + 28) & 0xffff;
+            int slot = hash(cen, pos + CENHDR, nameLength) & (tableSize - 1);
+            while (nameTable[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            nameTable[slot] = i + 1;
+
+            pos += CENHDR + nameLength + (cen.getShort(pos + 30) & 0xffff) + (cen.getShort(pos + 32) & 0xffff);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The number of entries in the nest.
+     *
+     * @return  the number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the index of the entry with the name or -1 if the nest
+     * does not contain it.
+     *
+     * @param name  entry name
+     * @return  the index of the entry or -1
+     */
+    public int indexOf(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        final byte[] bytes = name.getBytes(UTF_8);
+        final ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+        int slot = hash(wrapped, 0, bytes.length) & (nameTable.length - 1);
+        while (nameTable[slot] != 0) {
+            final int i = nameTable[slot] - 1;
+            if (nameEquals(i, bytes)) {
+                return i;
+            }
+            slot = (slot + 1) & (nameTable.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indexes, in the ascending order, of the entries whose names
+     * start with the prefix. The entries are looked up in the index of the
+     * names sorted by their bytes, which is created on the first call,
+     * so the cost of a lookup depends on the number of the matching
+     * entries rather than on the size of the nest.
+     *
+     * @param prefix  name prefix
+     * @return  the indexes of the entries whose names start with the prefix
+     */
+    public int[] indexesWithPrefix(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix is null");
+        }
+        final byte[] bytes = prefix.getBytes(UTF_8);
+        final int[] sorted = getSortedByName();
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareName(sorted[mid], bytes) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < sorted.length && startsWith(sorted[end], bytes)) {
+            ++end;
+        }
+        final int[] indexes = Arrays.copyOfRange(sorted, low, end);
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
+    public String getName(int i) {
+        final int pos = cenPositions[i];
+        return new String(getBytes(pos + CENHDR, getNameLength(pos)), UTF_8);
+    }
+
+    public boolean isDirectory(int i) {
+        final int pos = cenPositions[i];
+        final int nameLength = getNameLength(pos);
+        return nameLength > 0 && cen.get(pos + CENHDR + nameLength - 1) == '/';
+    }
+
+    /**
+     * Whether the entry holds the metadata of the nest rather than its content,
+     * see {@link org.wildfly.nest.util.ZipUtils#isNestMetadata(String)}.
+     *
+     * @param i  entry index
+     * @return  whether the entry holds the metadata of the nest
+     */
+    public boolean isNestMetadata(int i) {
+        final int pos = cenPositions[i];
+        return getNameLength(pos) >= 2 && cen.get(pos + CENHDR) == '.' && cen.get(pos + CENHDR + 1) == '/';
+    }
+
+    /**
+     * The extra field bytes from the central directory.
+     *
+     * @param i  entry index
+     * @return  extra field bytes
+     */
+    public byte[] getExtra(int i) {
+        final int pos = cenPositions[i];
+        return getBytes(pos + CENHDR + getNameLength(pos), cen.getShort(pos + 30) & 0xffff);
+    }
+
+    public int getMethod(int i) {
+        return cen.getShort(cenPositions[i] + 10) & 0xffff;
+    }
+
+    /**
+     * The last modification time in the MS-DOS format.
+     *
+     * @param i  entry index
+     * @return  the last modification time in the MS-DOS format
+     */
+    public long getDosTime(int i) {
+        return cen.getInt(cenPositions[i] + 12) & ZIP64_MAGICVAL;
+    }
+
+    public long getCrc(int i) {
+        return cen.getInt(cenPositions[i] + 16) & ZIP64_MAGICVAL;
+    }
+
+    public long getCompressedSize(int i) {
+        return compressedSizes[i];
+    }
+
+    public long getSize(int i) {
+        return sizes[i];
+    }
+
+    public long getLocalHeaderOffset(int i) {
+        return localHeaderOffsets[i];
+    }
+
+    /**
+     * Returns the offset of the raw data of the entry in the nest file.
+     *
+     * @param i  entry index
+     * @return  the offset of the raw data of the entry
+     * @throws IOException  in case of a failure
+     */
+    public long getDataOffset(int i) throws IOException {
+        final ByteBuffer loc = read(localHeaderOffsets[i], LOCHDR);
+        if (loc.getInt(0) != LOCSIG) {
+            throw new ZipException("Invalid local header for " + getName(i) + " in " + file.getAbsolutePath());
+        }
+        return localHeaderOffsets[i] + LOCHDR + (loc.getShort(26) & 0xffff) + (loc.getShort(28) & 0xffff);
+    }
+
+    /**
+     * Transfers the raw (i.e. as it is stored in the nest) data of the entry
+     * to the target channel.
+     *
+     * @param i  entry index
+     * @param target  target channel
+     * @throws IOException  in case of a failure
+     */
+    public void transferRawData(int i, WritableByteChannel target) throws IOException {
+        final long offset = getDataOffset(i);
+        final long length = compressedSizes[i];
+        long transferred = 0;
+        while (transferred < length) {
+            final long count = channel.transferTo(offset + transferred, length - transferred, target);
+            if (count == 0 && offset + transferred >= channel.size()) {
+                throw new EOFException("Unexpected end of " + file.getAbsolutePath());
+            }
+            transferred += count;
+        }
+    }
+
+    /**
+     * Returns a stream of the uncompressed content of the entry.
+     *
+     * @param i  entry index
+     * @return  uncompressed content of the entry
+     * @throws IOException  in case of a failure
+     */
+    public InputStream getInputStream(int i) throws IOException {
+        final long length = compressedSizes[i];
+        final InputStream raw = new RawDataInputStream(getDataOffset(i), length);
+        final int method = getMethod(i);
+        switch (method) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                return new RawInflaterInputStream(raw, (int) Math.max(1, Math.min(length, BUFFER_SIZE)));
+            default:
+                throw new ZipException("Unsupported compression method " + method + " of " + getName(i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private int getNameLength(int pos) {
+        return cen.getShort(pos + 28) & 0xffff;
+    }
+
+    private boolean nameEquals(int i, byte[] name) {
+        final int pos = cenPositions[i];
+        if (getNameLength(pos) != name.length) {
+            return false;
+        }
+        final int namePos = pos + CENHDR;
+        for (int j = 0; j < name.length; ++j) {
+            if (cen.get(namePos + j) != name[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(int i, byte[] prefix) {
+        final int pos = cenPositions[i];
+        if (getNameLength(pos) < prefix.length) {
+            return false;
+        }
+        final int namePos = pos + CENHDR;
+        for (int j = 0; j < prefix.length; ++j) {
+            if (cen.get(namePos + j) != prefix[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the name of the entry to the bytes as unsigned bytes,
+     * which for UTF-8 is the order of the code points.
+     */
+    private int compareName(int i, byte[] name) {
+        final int pos = cenPositions[i];
+        final int length = getNameLength(pos);
+        final int namePos = pos + CENHDR;
+        final int common = Math.min(length, name.length);
+        for (int j = 0; j < common; ++j) {
+            final int diff = (cen.get(namePos + j) & 0xff) - (name[j] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - name.length;
+    }
+
+    private int compareNames(int a, int b) {
+        final int posA = cenPositions[a];
+        final int posB = cenPositions[b];
+        final int lengthA = getNameLength(posA);
+        final int lengthB = getNameLength(posB);
+        final int common = Math.min(lengthA, lengthB);
+        for (int j = 0; j < common; ++j) {
+            final int diff = (cen.get(posA + CENHDR + j) & 0xff) - (cen.get(posB + CENHDR + j) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private int[] getSortedByName() {
+        int[] sorted = sortedByName;
+        if (sorted == null) {
+            synchronized (this) {
+                sorted = sortedByName;
+                if (sorted == null) {
+                    sorted = new int[count];
+                    for (int i = 0; i < count; ++i) {
+                        sorted[i] = i;
+                    }
+                    sortByName(sorted, new int[count], 0, count);
+                    sortedByName = sorted;
+                }
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Merge sort of the entry indexes by the name, the entries of a nest
+     * are mostly grouped by directory already, which the merge takes
+     * advantage of skipping the merge of the ordered halves.
+     */
+    private void sortByName(int[] indexes, int[] tmp, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sortByName(indexes, tmp, from, mid);
+        sortByName(indexes, tmp, mid, to);
+        if (compareNames(indexes[mid - 1], indexes[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(indexes, from, tmp, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int k = from; k < to; ++k) {
+            if (right >= to || left < mid && compareNames(tmp[left], tmp[right]) <= 0) {
+                indexes[k] = tmp[left++];
+            } else {
+                indexes[k] = tmp[right++];
+            }
+        }
+    }
+
+    private byte[] getBytes(int pos, int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer dup = cen.duplicate();
+        dup.position(pos);
+        dup.get(bytes);
+        return bytes;
+    }
+
+    private static int hash(ByteBuffer buf, int pos, int length) {
+        int h = 0;
+        for (int i = pos; i < pos + length; ++i) {
+            h = 31 * h + buf.get(i);
+        }
+        // spread the higher bits since the table is indexed by the lower ones
+        return h ^ (h >>> 16);
+    }
+
+    private void readZip64Extra(int i) throws ZipException {
+        final int pos = cenPositions[i];
+        final int extraLength = cen.getShort(pos + 30) & 0xffff;
+        int extraPos = pos + CENHDR + getNameLength(pos);
+        final int extraEnd = extraPos + extraLength;
+        while (extraPos + 4 <= extraEnd) {
+            final int id = cen.getShort(extraPos) & 0xffff;
+            final int length = cen.getShort(extraPos + 2) & 0xffff;
+            extraPos += 4;
+            if (id == ZIP64_EXTID) {
+                if (sizes[i] == ZIP64_MAGICVAL) {
+                    sizes[i] = cen.getLong(extraPos);
+                    extraPos += 8;
+                }
+                if (compressedSizes[i] == ZIP64_MAGICVAL) {
+                    compressedSizes[i] = cen.getLong(extraPos);
+                    extraPos += 8;
+                }
+                if (localHeaderOffsets[i] == ZIP64_MAGICVAL) {
+                    localHeaderOffsets[i] = cen.getLong(extraPos);
+                }
+                return;
+            }
+            extraPos += length;
+        }
+        throw new ZipException("Missing ZIP64 extra field for " + getName(i) + " in " + file.getAbsolutePath());
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file.getAbsolutePath());
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Reads a region of the nest file using positional reads.
+     */
+    private class RawDataInputStream extends InputStream {
+
+        private long position;
+        private final long end;
+
+        RawDataInputStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            final int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + file.getAbsolutePath());
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(end - position, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Inflates the raw (i.e. without the ZLIB header) deflated data of a ZIP
+ * entry, ending the inflater when the stream is closed.
+ * The underlying stream is expected to end where the deflated data ends.
+ *
+ * @author Alexey Loubyansky
+ */
+public class RawInflaterInputStream extends InflaterInputStream {
+
+    private boolean eof;
+
+    public RawInflaterInputStream(InputStream in, int size) {
+        super(in, new Inflater(true), size);
+    }
+
+    @Override
+    protected void fill() throws IOException {
+        if (eof) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        len = in.read(buf, 0, buf.length);
+        if (len == -1) {
+            // the inflater may need an extra dummy byte in the nowrap mode
+            buf[0] = 0;
+            len = 1;
+            eof = true;
+        }
+        inf.setInput(buf, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        inf.end();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * The strings shared by the entry attachments of the nest. The table is
+ * stored once, as an attachment of the root entry, and the entry attachments
+ * refer to the strings by their indexes in the table.
+ *
+ * <p>The strings are added while the nest is being prepared to be built,
+ * once the table has been written it is only read and can be shared
+ * between threads.
+ *
+ * @author Alexey Loubyansky
+ */
+public final class StringTable {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static StringTable create() {
+        return new StringTable();
+    }
+
+    /**
+     * Reads the table from its {@link #toByteArray()} form.
+     *
+     * @param bytes  the table bytes
+     * @return  the table
+     * @throws NestException  in case the bytes are not a valid table
+     */
+    public static StringTable fromByteArray(byte[] bytes) throws NestException {
+        if(bytes == null) {
+            throw new IllegalArgumentException("bytes is null");
+        }
+        final AttachmentInput in = new AttachmentInput();
+        in.reset(null, bytes, 0, bytes.length);
+        final int size = in.readVarInt();
+        final StringTable table = new StringTable();
+        for(int i = 0; i < size; ++i) {
+            table.add(in.readUTF8(in.readVarInt()));
+        }
+        if(in.hasRemaining()) {
+            throw new NestException("Unexpected bytes following the string table");
+        }
+        return table;
+    }
+
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    private StringTable() {
+    }
+
+    /**
+     * Adds the string to the table unless it is already there.
+     *
+     * @param str  the string to add
+     * @return  the index of the string in the table
+     */
+    public int add(String str) {
+        if(str == null) {
+            throw new IllegalArgumentException("str is null");
+        }
+        final Integer index = indexes.get(str);
+        if(index != null) {
+            return index;
+        }
+        final int i = strings.size();
+        strings.add(str);
+        indexes.put(str, i);
+        return i;
+    }
+
+    /**
+     * Returns the index of the string in the table or -1 if the table
+     * does not contain the string.
+     *
+     * @param str  the string
+     * @return  the index of the string or -1
+     */
+    public int indexOf(String str) {
+        final Integer index = indexes.get(str);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the string at the index.
+     *
+     * @param index  the index of the string
+     * @return  the string
+     * @throws NestException  in case the table does not have the index
+     */
+    public String get(int index) throws NestException {
+        if(index < 0 || index >= strings.size()) {
+            throw new NestException("String index " + index + " is out of the string table bounds " + strings.size());
+        }
+        return strings.get(index);
+    }
+
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * The number of strings followed by the length and the UTF-8 bytes of each
+     * of the strings, the numbers written as varints.
+     *
+     * @return  the table bytes
+     */
+    public byte[] toByteArray() {
+        final AttachmentOutput out = new AttachmentOutput();
+        out.reset(null);
+        out.writeVarInt(strings.size());
+        for(String str : strings) {
+            out.writeUTF8(str);
+        }
+        return out.toByteArray();
+    }
+}
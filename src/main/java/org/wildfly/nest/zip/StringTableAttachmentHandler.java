@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildContext;
+import org.wildfly.nest.expand.NestExpandContext;
+
+/**
+ * Writes and reads the {@link StringTable} the entry attachments of the
+ * nest refer to. The nests built without the table have their entry
+ * attachments written in the original format.
+ *
+ * @author Alexey Loubyansky
+ */
+public class StringTableAttachmentHandler implements NestAttachmentHandler {
+
+    public static final String ID = "STRING_TABLE";
+
+    /**
+     * Returns the string table from the nest attachments or null if the
+     * nest was built without a string table.
+     *
+     * @param attachments  nest attachments of the root entry, may be null
+     * @return  the string table or null
+     * @throws NestException  in case the attachments could not be read
+     */
+    public static StringTable getStringTable(byte[] attachments) throws NestException {
+        if(attachments == null) {
+            return null;
+        }
+        final byte[] bytes = NestAttachments.find(attachments, ID);
+        return bytes == null ? null : StringTable.fromByteArray(bytes);
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public void fromByteArray(NestExpandContext ctx, byte[] bytes) throws NestException {
+        assert bytes != null : "bytes is null";
+        ctx.setStringTable(StringTable.fromByteArray(bytes));
+    }
+
+    @Override
+    public byte[] toByteArray(NestBuildContext ctx) throws NestException {
+        final StringTable strings = ctx.getStringTable();
+        return strings == null ? null : strings.toByteArray();
+    }
+}
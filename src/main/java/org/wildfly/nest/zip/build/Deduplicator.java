@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.build;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wildfly.nest.util.DigestPool;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.zip.StringTable;
+
+/**
+ * Finds the files with identical content while the nest is being built,
+ * so that the content is stored only once.
+ *
+ * <p>The files are hashed by the worker threads while they are compressed.
+ * Each entry claims its content with its sequence number, i.e. the order
+ * in which it was added to the pipeline, and the compressed data of an entry
+ * whose content has already been claimed by an earlier entry is discarded.
+ * Whether an entry is a duplicate is, however, finally decided when the
+ * entries are written, in order, so the first of the identical entries
+ * always holds the content and the nest does not depend on the number of
+ * threads. An entry that claimed the content before an earlier entry with
+ * the same content did is still written as a reference.
+ *
+ * @author Alexey Loubyansky
+ */
+class Deduplicator {
+
+    static String contentKey(byte[] digest, long size) {
+        return HashUtils.bytesToHexString(digest) + '-' + size;
+    }
+
+    private final DigestPool digests;
+    private final StringTable strings;
+    /** the smallest sequence number of the entries claiming the content */
+    private final ConcurrentMap<String, Integer> claims = new ConcurrentHashMap<String, Integer>();
+    /** the names of the written entries holding the content, used only by the writing thread */
+    private final Map<String, String> written = new HashMap<String, String>();
+
+    Deduplicator(DigestPool digests, StringTable strings) {
+        if (digests == null) {
+            throw new IllegalArgumentException("digests is null");
+        }
+        this.digests = digests;
+        this.strings = strings;
+    }
+
+    /**
+     * The digests the content of the files is identified with.
+     *
+     * @return  the digests to hash the files with
+     */
+    DigestPool getDigests() {
+        return digests;
+    }
+
+    /**
+     * Claims the content for the entry with the sequence number.
+     *
+     * @param content  content key
+     * @param sequence  the sequence number of the entry
+     * @return  false if the content has already been claimed by an earlier entry
+     */
+    boolean claim(String content, int sequence) {
+        for (;;) {
+            final Integer claimed = claims.putIfAbsent(content, sequence);
+            if (claimed == null) {
+                return true;
+            }
+            if (claimed < sequence) {
+                return false;
+            }
+            if (claims.replace(content, claimed, sequence)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Called for the entries in the order they are written. Returns the entry
+     * itself if it is the first one with its content, otherwise, returns
+     * the reference to the first one discarding the data of the entry.
+     *
+     * @param entry  the entry to write
+     * @return  the entry to write instead
+     * @throws IOException  in case of a failure
+     */
+    PreparedEntry resolve(PreparedEntry entry) throws IOException {
+        if (entry.content == null) {
+            return entry;
+        }
+        final String target = written.get(entry.content);
+        if (target == null) {
+            if (entry.duplicate) {
+                throw new IllegalStateException("The content of " + entry.name + " was claimed by an entry which has not been written");
+            }
+            written.put(entry.content, entry.name);
+            return entry;
+        }
+        final PreparedEntry reference = PreparedEntry.reference(entry, target, strings);
+        entry.discard();
+        return reference;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.build;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.zip.ContentManifest;
+
+/**
+ * Scatter/gather pipeline between the entry preparation and the writer.
+ * The entries are prepared (i.e. compressed) by the worker threads
+ * into independent buffers and are written by the calling thread strictly
+ * in the order they were added to the pipeline. So, the output does not
+ * depend on the number of threads.
+ * The number of entries being prepared or waiting to be written is bounded
+ * to limit the memory held by the prepared data.
+ *
+ * @author Alexey Loubyansky
+ */
+class EntryPipeline {
+
+    private final ZipNestWriter writer;
+    private final ContentManifest manifest;
+    private final Deduplicator deduplicator;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<Future<PreparedEntry>> pending;
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param writer  the writer to write the entries to
+     * @param threads  the number of threads to prepare the entries with
+     * @param manifest  content manifest the digests of the written entries
+     *                  should be added to or null
+     * @param deduplicator  deduplicator the written entries should be
+     *                      resolved with or null
+     */
+    EntryPipeline(ZipNestWriter writer, int threads, ContentManifest manifest, Deduplicator deduplicator) {
+        if (writer == null) {
+            throw new IllegalArgumentException("writer is null");
+        }
+        this.writer = writer;
+        this.manifest = manifest;
+        this.deduplicator = deduplicator;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+            maxPending = threads * 2;
+            pending = new ArrayDeque<Future<PreparedEntry>>(maxPending + 1);
+        } else {
+            executor = null;
+            maxPending = 0;
+            pending = null;
+        }
+    }
+
+    /**
+     * Adds an entry which is ready to be written.
+     *
+     * @param entry  prepared entry
+     * @throws IOException  in case of a failure
+     */
+    void add(final PreparedEntry entry) throws IOException {
+        if (executor == null || pending.isEmpty()) {
+            write(entry);
+            return;
+        }
+        final FutureTask<PreparedEntry> done = new FutureTask<PreparedEntry>(new Callable<PreparedEntry>() {
+            @Override
+            public PreparedEntry call() {
+                return entry;
+            }
+        });
+        done.run();
+        pending.add(done);
+    }
+
+    /**
+     * Adds a task which will prepare an entry.
+     * If the pipeline is sequential, the task is run and the entry is
+     * written immediately.
+     *
+     * @param task  task preparing an entry
+     * @throws IOException  in case of a failure
+     */
+    void add(Callable<PreparedEntry> task) throws IOException {
+        if (executor == null) {
+            final PreparedEntry entry;
+            try {
+                entry = task.call();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Failed to prepare entry", e);
+            }
+            write(entry);
+            return;
+        }
+        pending.add(executor.submit(task));
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for all the pending entries and writes them.
+     *
+     * @throws IOException  in case of a failure
+     */
+    void flush() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Stops the workers and discards the entries that have not been written.
+     */
+    void close() {
+        if (executor == null) {
+            return;
+        }
+        // the tasks that haven't started will never complete unless cancelled
+        for (Runnable notStarted : executor.shutdownNow()) {
+            ((Future<?>) notStarted).cancel(false);
+        }
+        // the running ones are let to complete so that their data can be discarded
+        while (!pending.isEmpty()) {
+            try {
+                pending.poll().get().discard();
+            } catch (Exception e) {
+                // cancelled or failed, nothing to discard
+            }
+        }
+    }
+
+    private void writeNext() throws IOException {
+        final PreparedEntry entry;
+        try {
+            entry = pending.poll().get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to prepare entry", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for entry", e);
+        }
+        write(entry);
+    }
+
+    private void write(PreparedEntry entry) throws IOException {
+        try {
+            if (deduplicator != null) {
+                entry = deduplicator.resolve(entry);
+            }
+            try {
+                writer.write(entry);
+            } catch (NestException e) {
+                throw new IOException("Failed to write " + entry.name, e);
+            }
+            if (manifest != null && entry.digest != null) {
+                manifest.add(entry.name, entry.digest);
+            }
+        } finally {
+            entry.discard();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.build;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.util.BufferPool;
+import org.wildfly.nest.util.DigestPool;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.ContentRefAttachmentHandler;
+import org.wildfly.nest.zip.StringTable;
+import org.wildfly.nest.zip.NestZipFile;
+
+/**
+ * ZIP entry with its data prepared (i.e. compressed) for writing
+ * along with everything that goes into its local and central
+ * directory headers.
+ *
+ * @author Alexey Loubyansky
+ */
+class PreparedEntry {
+
+    /** compressed data larger than this will be kept in a temporary file */
+    private static final int SPILL_THRESHOLD = 1 << 20;
+
+    static PreparedEntry directory(String name, long time, byte[] extra) {
+        final PreparedEntry entry = new PreparedEntry(name, extra, ZipEntry.STORED, ZipUtils.toDosTime(time));
+        entry.data = IoUtils.NO_CONTENT;
+        return entry;
+    }
+
+    /**
+     * Reads and compresses the file. If the digests are not null,
+     * the digest of the content is calculated in the same pass.
+     *
+     * @param file  the file to compress
+     * @param time  last modified time of the file
+     * @param name  entry name
+     * @param extra  entry extra or null
+     * @param digests  digests to hash the content with or null
+     * @return  prepared entry
+     * @throws IOException  in case of a failure
+     */
+    static PreparedEntry deflate(File file, long time, String name, byte[] extra, DigestPool digests) throws IOException {
+        final PreparedEntry entry = new PreparedEntry(name, extra, ZipEntry.DEFLATED, ZipUtils.toDosTime(time));
+        final InputStream is = new FileInputStream(file);
+        try {
+            entry.deflate(is, digests == null ? null : digests.getDigest());
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        return entry;
+    }
+
+    /**
+     * Prepares the file to be stored in the nest as it is. The CRC-32 and,
+     * if the digests are not null, the digest of the content are calculated
+     * reading the file, the content is transferred to
+     * the nest when the entry is written.
+     *
+     * @param file  the file to store
+     * @param time  last modified time of the file
+     * @param name  entry name
+     * @param extra  entry extra or null
+     * @param digests  digests to hash the content with or null
+     * @return  prepared entry
+     * @throws IOException  in case of a failure
+     */
+    static PreparedEntry store(File file, long time, String name, byte[] extra, DigestPool digests) throws IOException {
+        final PreparedEntry entry = new PreparedEntry(name, extra, ZipEntry.STORED, ZipUtils.toDosTime(time));
+        final MessageDigest digest = digests == null ? null : digests.getDigest();
+        final CRC32 crc = new CRC32();
+        final InputStream is = new FileInputStream(file);
+        try {
+            entry.size = HashUtils.crc32(is, crc, digest, null);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        entry.crc = crc.getValue();
+        entry.compressedSize = entry.size;
+        entry.sourceFile = file;
+        if (digest != null) {
+            entry.digest = digest.digest();
+        }
+        return entry;
+    }
+
+    static PreparedEntry deflate(byte[] bytes, String name, long time) throws IOException {
+        final PreparedEntry entry = new PreparedEntry(name, null, ZipEntry.DEFLATED, ZipUtils.toDosTime(time));
+        entry.deflate(new ByteArrayInputStream(bytes), null);
+        return entry;
+    }
+
+    /**
+     * Creates an entry which reuses the data of the entry of another nest
+     * as it is stored there, i.e. without inflating and deflating it.
+     *
+     * @param nest  nest the data should be copied from
+     * @param source  the index of the entry whose data should be copied
+     * @param name  entry name
+     * @param extra  entry extra or null
+     * @return  prepared entry
+     */
+    static PreparedEntry copy(NestZipFile nest, int source, String name, byte[] extra) {
+        final PreparedEntry entry = new PreparedEntry(name, extra, nest.getMethod(source), nest.getDosTime(source));
+        entry.crc = nest.getCrc(source);
+        entry.size = nest.getSize(source);
+        entry.compressedSize = nest.getCompressedSize(source);
+        entry.rawNest = nest;
+        entry.rawIndex = source;
+        return entry;
+    }
+
+    /**
+     * Creates an entry whose content has been found to be a duplicate
+     * of the content of an earlier entry while the file was compressed,
+     * so the compressed data is not kept. The entry is replaced with
+     * a {@link #reference(PreparedEntry, String, StringTable)} when it is written.
+     *
+     * @param name  entry name
+     * @param extra  entry extra or null
+     * @param time  the last modification time of the file
+     * @return  prepared entry
+     */
+    static PreparedEntry duplicate(String name, byte[] extra, long time) {
+        final PreparedEntry entry = new PreparedEntry(name, extra, ZipEntry.STORED, ZipUtils.toDosTime(time));
+        entry.data = IoUtils.NO_CONTENT;
+        entry.duplicate = true;
+        return entry;
+    }
+
+    /**
+     * Creates an entry without data referencing the entry holding
+     * the content identical to the content of the duplicate.
+     *
+     * @param duplicate  the entry with the duplicate content
+     * @param target  the name of the entry holding the content
+     * @param strings  the string table of the nest or null
+     * @return  prepared entry
+     * @throws IOException  in case of a failure
+     */
+    static PreparedEntry reference(PreparedEntry duplicate, String target, StringTable strings) throws IOException {
+        final byte[] attachments;
+        try {
+            attachments = ContentRefAttachmentHandler.append(strings, ZipUtils.fromExtraField(duplicate.extra), target);
+        } catch (NestException e) {
+            throw new IOException("Failed to reference " + target + " from " + duplicate.name, e);
+        }
+        final PreparedEntry entry = new PreparedEntry(duplicate.name, ZipUtils.toExtraField(attachments), ZipEntry.STORED, duplicate.dosTime);
+        entry.data = IoUtils.NO_CONTENT;
+        entry.digest = duplicate.digest;
+        return entry;
+    }
+
+    final String name;
+    final byte[] extra;
+    final int method;
+    final long dosTime;
+    long crc;
+    long size;
+    long compressedSize;
+
+    /** the data when it is kept in memory */
+    byte[] data;
+    /** the data when it was moved to a temporary file */
+    File dataFile;
+
+    /** the file stored as it is */
+    File sourceFile;
+
+    /** the nest the data is copied from as it is stored there */
+    NestZipFile rawNest;
+    int rawIndex;
+
+    /** the digest of the uncompressed content, if it was requested */
+    byte[] digest;
+
+    /** the key of the content when the nest is deduplicated */
+    String content;
+    /** whether the content was found to be claimed by an earlier entry */
+    boolean duplicate;
+
+    private PreparedEntry(String name, byte[] extra, int method, long dosTime) {
+        this.name = name;
+        this.extra = extra;
+        this.method = method;
+        this.dosTime = dosTime;
+    }
+
+    private void deflate(InputStream is, MessageDigest digest) throws IOException {
+        final CRC32 crc = new CRC32();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final SpillOutputStream data = new SpillOutputStream(SPILL_THRESHOLD);
+        final byte[] deflated = BufferPool.DEFAULT.getArray();
+        try {
+            final long size = HashUtils.crc32(is, crc, digest, new OutputStream() {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    deflater.setInput(b, off, len);
+                    while (!deflater.needsInput()) {
+                        writeDeflated(deflater, deflated, data);
+                    }
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+            });
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeDeflated(deflater, deflated, data);
+            }
+            data.close();
+            this.crc = crc.getValue();
+            this.size = size;
+            if (digest != null) {
+                this.digest = digest.digest();
+            }
+            compressedSize = data.size();
+            this.data = data.getBuffer();
+            dataFile = data.getFile();
+        } catch (IOException e) {
+            data.discard();
+            throw e;
+        } finally {
+            deflater.end();
+            BufferPool.DEFAULT.release(deflated);
+        }
+    }
+
+    private static void writeDeflated(Deflater deflater, byte[] buf, OutputStream out) throws IOException {
+        final int length = deflater.deflate(buf, 0, buf.length);
+        if (length > 0) {
+            out.write(buf, 0, length);
+        }
+    }
+
+    /**
+     * Releases the data, deleting the temporary file if there is one.
+     */
+    void discard() {
+        data = null;
+        sourceFile = null;
+        rawNest = null;
+        if (dataFile != null) {
+            dataFile.delete();
+            dataFile = null;
+        }
+    }
+}
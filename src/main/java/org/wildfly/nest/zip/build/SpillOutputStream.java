@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.build;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Output stream which keeps the data in memory until its size reaches
+ * the threshold, after which all the data is moved to a temporary file.
+ *
+ * @author Alexey Loubyansky
+ */
+class SpillOutputStream extends OutputStream {
+
+    private final int threshold;
+    private byte[] buf;
+    private int count;
+
+    private File file;
+    private OutputStream fileOut;
+    private long size;
+
+    SpillOutputStream(int threshold) {
+        this.threshold = threshold;
+        buf = new byte[Math.min(threshold, 8192)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null) {
+            if (count + len <= threshold) {
+                if (count + len > buf.length) {
+                    final byte[] tmp = new byte[Math.min(threshold, Math.max(buf.length << 1, count + len))];
+                    System.arraycopy(buf, 0, tmp, 0, count);
+                    buf = tmp;
+                }
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+                size += len;
+                return;
+            }
+            file = File.createTempFile("nest", ".spill");
+            fileOut = new BufferedOutputStream(new FileOutputStream(file));
+            fileOut.write(buf, 0, count);
+            buf = null;
+            count = 0;
+        }
+        fileOut.write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null) {
+            fileOut.close();
+        }
+    }
+
+    /**
+     * The total number of bytes written to this stream.
+     *
+     * @return  the total number of bytes written
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * The in-memory data or null if the data was moved to a file.
+     *
+     * @return  in-memory data or null
+     */
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * The file the data was moved to or null if the data is in memory.
+     *
+     * @return  the file holding the data or null
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Closes the stream and deletes the temporary file, if one was created.
+     */
+    void discard() {
+        IoUtils.safeClose(fileOut);
+        if (file != null) {
+            file.delete();
+        }
+        buf = null;
+    }
+}
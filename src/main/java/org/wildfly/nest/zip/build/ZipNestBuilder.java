@@ -22,22 +22,44 @@
 
 package org.wildfly.nest.zip.build;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.wildfly.nest.NestException;
 import org.wildfly.nest.build.AbstractNestBuilder;
+import org.wildfly.nest.build.CompressionPolicy;
 import org.wildfly.nest.build.NestBuildContext;
 import org.wildfly.nest.build.NestEntrySource;
+import org.wildfly.nest.util.DigestPool;
+import org.wildfly.nest.util.HashUtils;
 import org.wildfly.nest.util.IoUtils;
 import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.AttachmentEntryWriter;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.ContentManifestAttachmentHandler;
+import org.wildfly.nest.zip.NestAttachments;
+import org.wildfly.nest.zip.NestZipFile;
 
 /**
  *
@@ -45,67 +67,140 @@ import org.wildfly.nest.util.ZipUtils;
  */
 public class ZipNestBuilder extends AbstractNestBuilder {
 
-    private ZipOutputStream zipOut;
+    /** the digest identifying the content of the files when the nest is deduplicated without a content manifest */
+    private static final String DEDUPLICATION_DIGEST = "SHA-256";
+
+    private ZipNestWriter writer;
+    private EntryPipeline pipeline;
+    private DigestPool contentDigests;
+
+    private CompressionPolicy compressionPolicy;
+
+    private Deduplicator deduplicator;
+    /** the number of the file entries added to the pipeline */
+    private int fileCount;
+
+    private NestZipFile previousNest;
+    private ContentManifest previousManifest;
+    private boolean checkCrc;
 
     private File currentEntrySrc;
-    private ZipEntry currentZipEntry;
+    private BasicFileAttributes currentEntryAttrs;
+    private String currentEntryName;
+    private byte[] currentEntryExtra;
+
+    /** the attachments of the current entry stored in metadata entries, added to the nest following the entry */
+    private final List<PreparedEntry> attachmentEntries = new ArrayList<PreparedEntry>();
+    private int attachmentEntryCount;
+    private final AttachmentEntryWriter attachmentEntryWriter = new AttachmentEntryWriter() {
+        @Override
+        public String write(String handlerId, byte[] attachment) throws NestException {
+            final String entryName = ZipUtils.ATTACHMENTS_ENTRY_PREFIX + attachmentEntryCount++;
+            try {
+                attachmentEntries.add(PreparedEntry.deflate(attachment, entryName, 0));
+            } catch (IOException e) {
+                throw new NestException("Failed to add the " + handlerId + " attachment entry", e);
+            }
+            return entryName;
+        }
+    };
 
     @Override
     protected void prepareToBuild(NestBuildContext ctx) throws NestException {
 
-        FileOutputStream fis;
-        try {
-            fis = new FileOutputStream(ctx.getNestFile());
-        } catch (FileNotFoundException e) {
-            throw new NestException("Failed to open " + ctx.getNestFile().getAbsolutePath(), e);
+        if (ctx.getNestChannel() != null) {
+            writer = new ZipNestWriter(new UnclosableChannel(ctx.getNestChannel()));
+        } else {
+            FileOutputStream fos;
+            try {
+                fos = new FileOutputStream(ctx.getNestFile());
+            } catch (FileNotFoundException e) {
+                throw new NestException("Failed to open " + ctx.getNestFile().getAbsolutePath(), e);
+            }
+            writer = new ZipNestWriter(fos.getChannel());
+        }
+        contentDigests = ctx.getContentManifest() == null ? null : ctx.getContentManifest().getDigests();
+        if (ctx.isDeduplicate()) {
+            try {
+                // the digests of the manifest identify the content too, so the files are hashed once
+                deduplicator = new Deduplicator(contentDigests != null ? contentDigests : DigestPool.getInstance(DEDUPLICATION_DIGEST), ctx.getStringTable());
+            } catch (NoSuchAlgorithmException e) {
+                throw new NestException("Digest algorithm is not available: " + DEDUPLICATION_DIGEST, e);
+            }
+        }
+        pipeline = new EntryPipeline(writer, ctx.getThreads(), ctx.getContentManifest(), deduplicator);
+        compressionPolicy = ctx.getCompressionPolicy();
+
+        final File previousFile = ctx.getPreviousNest();
+        if (previousFile != null && previousFile.exists()) {
+            try {
+                previousNest = NestZipFile.open(previousFile);
+            } catch (IOException e) {
+                throw new NestException("Failed to open previous nest " + previousFile.getAbsolutePath(), e);
+            }
+            checkCrc = ctx.isCheckCrc();
+            if (contentDigests != null) {
+                previousManifest = readContentManifest(previousNest);
+                if (previousManifest != null && !previousManifest.getAlgorithm().equals(contentDigests.getAlgorithm())) {
+                    previousManifest = null;
+                }
+            }
         }
-        zipOut = new ZipOutputStream(new BufferedOutputStream(fis));
     }
 
     @Override
-    protected void tidyUpAfterBuild(NestBuildContext ctx) throws NestException {
-
-        IoUtils.safeClose(zipOut);
+    protected void completeEntries(NestBuildContext ctx) throws NestException {
+        try {
+            pipeline.flush();
+        } catch (IOException e) {
+            throw new NestException("Failed to complete entries", e);
+        }
     }
 
     @Override
-    protected void addNestAttachments(NestBuildContext ctx, byte[] bytes) throws NestException {
-        final ZipEntry entry = new ZipEntry(ZipUtils.ROOT_ENTRY_NAME);
-        entry.setExtra(bytes);
+    protected void addTrailingAttachments(NestBuildContext ctx, byte[] attachments) throws NestException {
         try {
-            zipOut.putNextEntry(entry);
-            zipOut.closeEntry();
+            pipeline.add(PreparedEntry.deflate(attachments, ZipUtils.TRAILER_ENTRY_NAME, 0));
         } catch (IOException e) {
-            throw new NestException("Failed to add root entry", e);
+            throw new NestException("Failed to add trailer entry", e);
         }
     }
 
-    /*
-     * (non-Javadoc)
-     *
-     * @see org.wildfly.nest.build.AbstractNestBuilder#buildEntry(org.wildfly.nest.build.NestEntrySource)
-     *
     @Override
-    protected void buildEntry(NestBuildContext ctx, NestEntrySource entry) throws NestException {
-
-        final String srcPath = ctx.resolveSourcePath(entry.getSourceLocation());
-        final String nestPath = ctx.resolveNestPath(entry.getNestEntry().getNestLocation());
+    protected void completeBuild(NestBuildContext ctx) throws NestException {
         try {
-            addToZip(new File(srcPath), nestPath, zipOut);
+            pipeline.flush();
+            writer.finish();
         } catch (IOException e) {
-            throw new NestException("Failed to ZIP entry " + srcPath + " to " + nestPath, e);
+            throw new NestException("Failed to complete " + (ctx.getNestFile() == null ? "the nest" : ctx.getNestFile().getAbsolutePath()), e);
         }
     }
 
-    private static void addToZip(File fileOrDir, String nestPath, ZipOutputStream zos) throws IOException {
-        if (fileOrDir.isDirectory()) {
-            final String dirName = nestPath == null ? fileOrDir.getName() + ZipUtils.ENTRY_SEPARATOR :
-                nestPath + ZipUtils.ENTRY_SEPARATOR + fileOrDir.getName() + ZipUtils.ENTRY_SEPARATOR;
-            addDirectoryToZip(fileOrDir, dirName, zos);
-        } else {
-            addFileToZip(fileOrDir, nestPath == null ? null : nestPath + ZipUtils.ENTRY_SEPARATOR, zos);
+    @Override
+    protected void tidyUpAfterBuild(NestBuildContext ctx) throws NestException {
+
+        if(pipeline != null) {
+            pipeline.close();
+        }
+        IoUtils.safeClose(writer);
+        IoUtils.safeClose(previousNest);
+        previousNest = null;
+        previousManifest = null;
+        deduplicator = null;
+        attachmentEntries.clear();
+        attachmentEntryCount = 0;
+    }
+
+    @Override
+    protected void addNestAttachments(NestBuildContext ctx, byte[] bytes) throws NestException {
+        try {
+            // the root entry is synthetic, a fixed time keeps the nest reproducible
+            pipeline.add(PreparedEntry.directory(ZipUtils.ROOT_ENTRY_NAME, 0, ZipUtils.toExtraField(bytes)));
+            addAttachmentEntries();
+        } catch (IOException e) {
+            throw new NestException("Failed to add root entry", e);
         }
-    }*/
+    }
 
     @Override
     protected void beginEntry(NestBuildContext ctx, NestEntrySource entry) throws NestException {
@@ -114,6 +209,11 @@ public class ZipNestBuilder extends AbstractNestBuilder {
         final String nestPath = ctx.resolveNestPath(entry.getNestEntry().getNestLocation());
 
         currentEntrySrc = new File(srcPath);
+        try {
+            currentEntryAttrs = readAttributes(currentEntrySrc.toPath());
+        } catch (IOException e) {
+            throw new NestException("Failed to read the attributes of " + srcPath, e);
+        }
 
         final StringBuilder entryName = new StringBuilder();
         if (nestPath != null) {
@@ -121,90 +221,255 @@ public class ZipNestBuilder extends AbstractNestBuilder {
         }
         entryName.append(currentEntrySrc.getName());
 
-        if (currentEntrySrc.isDirectory()) {
+        if (currentEntryAttrs.isDirectory()) {
             entryName.append(ZipUtils.ENTRY_SEPARATOR);
         }
 
-        currentZipEntry = new ZipEntry(entryName.toString());
+        currentEntryName = entryName.toString();
     }
 
     @Override
     protected void addEntryAttachments(NestBuildContext ctx, NestEntrySource entry, byte[] attachments) throws NestException {
-        currentZipEntry.setExtra(attachments);
+        try {
+            currentEntryExtra = ZipUtils.toExtraField(attachments);
+        } catch (IOException e) {
+            throw new NestException("Failed to add attachments to " + currentEntryName, e);
+        }
     }
 
     @Override
     protected void completeEntry(NestBuildContext ctx, NestEntrySource entry) throws NestException {
 
         try {
-            zipOut.putNextEntry(currentZipEntry);
-
-            if (currentZipEntry.isDirectory()) {
-                zipOut.closeEntry();
-
-                File[] children = currentEntrySrc.listFiles();
-                if (children != null) {
-                    for (File file : children) {
-                        if (file.isDirectory()) {
-                            addDirectoryToZip(file, currentZipEntry.getName() + file.getName() + ZipUtils.ENTRY_SEPARATOR);
-                        } else {
-                            addFileToZip(file, currentZipEntry.getName());
-                        }
-                    }
-                }
+            if (currentEntryAttrs.isDirectory()) {
+                addDirectoryToZip(currentEntrySrc.toPath(), currentEntryName, currentEntryExtra);
             } else {
-                BufferedInputStream bis = null;
-                try {
-                    final FileInputStream is = new FileInputStream(currentEntrySrc);
-                    bis = new BufferedInputStream(is);
-                    IoUtils.copyStream(bis, zipOut);
-                    zipOut.closeEntry();
-                } finally {
-                    IoUtils.safeClose(bis);
-                }
+                addFileToZip(currentEntrySrc, currentEntryAttrs, currentEntryName, currentEntryExtra);
             }
+            addAttachmentEntries();
         } catch (IOException e) {
-            throw new NestException("Failed to add " + ctx.resolveSourcePath(entry.getSourceLocation()) + " as " + currentZipEntry.getName(), e);
+            throw new NestException("Failed to add " + ctx.resolveSourcePath(entry.getSourceLocation()) + " as " + currentEntryName, e);
         } finally {
-            currentZipEntry = null;
+            currentEntryName = null;
+            currentEntryExtra = null;
             currentEntrySrc = null;
+            currentEntryAttrs = null;
         }
     }
 
-    private void addDirectoryToZip(File dir, String dirName) throws IOException {
+    @Override
+    protected AttachmentEntryWriter getAttachmentEntryWriter() {
+        return attachmentEntryWriter;
+    }
 
-        final ZipEntry dirEntry = new ZipEntry(dirName);
-        zipOut.putNextEntry(dirEntry);
-        zipOut.closeEntry();
+    /**
+     * Adds the attachments stored in metadata entries immediately after the
+     * entry they belong to, i.e. before the content of a directory,
+     * so that a streaming reader can read them once it has read the entry.
+     */
+    private void addAttachmentEntries() throws IOException {
+        if (attachmentEntries.isEmpty()) {
+            return;
+        }
+        for (PreparedEntry entry : attachmentEntries) {
+            pipeline.add(entry);
+        }
+        attachmentEntries.clear();
+    }
+
+    /**
+     * Reads the attributes following the symbolic links or, in case of
+     * a broken link, the attributes of the link itself.
+     */
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            if (!Files.isSymbolicLink(path)) {
+                throw e;
+            }
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+    }
+
+    /**
+     * Adds the directory and its content walking the tree in a single pass.
+     * The types, sizes and times of the files come with the attributes
+     * returned by the walk, so each file is examined once and the entries
+     * are added to the pipeline as they are found.
+     */
+    private void addDirectoryToZip(final Path dir, final String dirName, final byte[] extra) throws IOException {
+        Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+            /** the entry names of the directories being walked */
+            private final Deque<String> dirNames = new ArrayDeque<String>();
 
-        File[] children = dir.listFiles();
-        if (children != null) {
-            for (File file : children) {
-                if (file.isDirectory()) {
-                    addDirectoryToZip(file, dirName + file.getName() + ZipUtils.ENTRY_SEPARATOR);
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                final String name;
+                if (dirNames.isEmpty()) {
+                    name = dirName;
+                    pipeline.add(PreparedEntry.directory(name, attrs.lastModifiedTime().toMillis(), extra));
+                    addAttachmentEntries();
                 } else {
-                    addFileToZip(file, dirName);
+                    name = dirNames.peek() + path.getFileName() + ZipUtils.ENTRY_SEPARATOR;
+                    pipeline.add(PreparedEntry.directory(name, attrs.lastModifiedTime().toMillis(), null));
+                }
+                dirNames.push(name);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                addFileToZip(path.toFile(), attrs, dirNames.peek() + path.getFileName(), null);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                dirNames.pop();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void addFileToZip(final File file, BasicFileAttributes attrs, final String entryName, final byte[] extra) throws IOException {
+        final DigestPool digests = contentDigests;
+        final int sequence = fileCount++;
+        final long size = attrs.size();
+        final long time = attrs.lastModifiedTime().toMillis();
+        pipeline.add(new Callable<PreparedEntry>() {
+            @Override
+            public PreparedEntry call() throws IOException {
+                try {
+                    if (deduplicator != null && size > 0) {
+                        return deduplicate(file, size, time, entryName, extra, digests, sequence);
+                    }
+                    if (previousNest != null) {
+                        return reuseOrCompress(file, size, time, entryName, extra, digests);
+                    }
+                    return compress(file, time, entryName, extra, digests, compressionPolicy.isStored(file, size));
+                } catch (IOException e) {
+                    throw new IOException("Failed to add " + file.getAbsolutePath() + " as " + entryName, e);
                 }
             }
+        });
+    }
+
+    /**
+     * Compresses the file (or reuses the data from the previous nest)
+     * hashing its content in the same pass and, if the content has already
+     * been claimed by an earlier entry, discards the prepared data.
+     * The digest of the content identifies the content and, if the manifest
+     * is requested, goes into the manifest.
+     */
+    private PreparedEntry deduplicate(File file, long size, long time, String entryName, byte[] extra, DigestPool digests, int sequence) throws IOException {
+        final PreparedEntry entry;
+        if (previousNest != null) {
+            entry = reuseOrCompress(file, size, time, entryName, extra, deduplicator.getDigests());
+        } else {
+            entry = compress(file, time, entryName, extra, deduplicator.getDigests(), compressionPolicy.isStored(file, size));
+        }
+        final String content = Deduplicator.contentKey(entry.digest, size);
+        if (deduplicator.claim(content, sequence)) {
+            entry.content = content;
+            return entry;
+        }
+        entry.discard();
+        final PreparedEntry duplicate = PreparedEntry.duplicate(entryName, extra, time);
+        duplicate.content = content;
+        if (digests != null) {
+            duplicate.digest = entry.digest;
         }
+        return duplicate;
     }
 
-    private void addFileToZip(File file, String nestPath) throws IOException {
-        final FileInputStream is = new FileInputStream(file);
-        try {
-            final String entryName = nestPath == null ? file.getName() : nestPath + file.getName();
-            zipOut.putNextEntry(new ZipEntry(entryName));
+    private static PreparedEntry compress(File file, long time, String entryName, byte[] extra, DigestPool digests, boolean store) throws IOException {
+        if (store) {
+            return PreparedEntry.store(file, time, entryName, extra, digests);
+        }
+        return PreparedEntry.deflate(file, time, entryName, extra, digests);
+    }
 
-            final BufferedInputStream bis = new BufferedInputStream(is);
-            try {
-                IoUtils.copyStream(bis, zipOut);
-            } finally {
-                IoUtils.safeClose(bis);
+    /**
+     * Copies the data of the entry from the previous nest if the file
+     * has not changed since then and the entry was compressed according
+     * to the current policy, otherwise compresses the file.
+     */
+    private PreparedEntry reuseOrCompress(File file, long size, long time, String entryName, byte[] extra, DigestPool digests) throws IOException {
+
+        final boolean store = compressionPolicy.isStored(file, size);
+        final int previous = previousNest.indexOf(entryName);
+        if (previous < 0 || previousNest.isDirectory(previous)
+                || previousNest.getMethod(previous) != (store ? ZipEntry.STORED : ZipEntry.DEFLATED)
+                || previousNest.getSize(previous) != size
+                || previousNest.getDosTime(previous) != ZipUtils.toDosTime(time)) {
+            return compress(file, time, entryName, extra, digests, store);
+        }
+
+        byte[] digest = null;
+        if (digests != null && previousManifest != null) {
+            digest = previousManifest.getDigest(entryName);
+        }
+        if (checkCrc || digests != null && digest == null) {
+            final MessageDigest md = digests == null || digest != null ? null : digests.getDigest();
+            if (HashUtils.crc32(file, md) != previousNest.getCrc(previous)) {
+                return compress(file, time, entryName, extra, digests, store);
+            }
+            if (md != null) {
+                digest = md.digest();
             }
+        }
 
-            zipOut.closeEntry();
-        } finally {
-            IoUtils.safeClose(is);
+        final PreparedEntry entry = PreparedEntry.copy(previousNest, previous, entryName, extra);
+        entry.digest = digest;
+        return entry;
+    }
+
+    private static ContentManifest readContentManifest(NestZipFile nest) throws NestException {
+        final int trailer = nest.indexOf(ZipUtils.TRAILER_ENTRY_NAME);
+        if (trailer < 0) {
+            return null;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) nest.getSize(trailer));
+        try {
+            IoUtils.copyStreamAndClose(nest.getInputStream(trailer), bytes);
+        } catch (IOException e) {
+            throw new NestException("Failed to read the trailer of " + nest.getFile().getAbsolutePath(), e);
+        }
+        final byte[] manifestBytes = NestAttachments.find(bytes.toByteArray(), ContentManifestAttachmentHandler.ID);
+        return manifestBytes == null ? null : ContentManifest.fromByteArray(manifestBytes);
+    }
+
+    /**
+     * The channel the nest is streamed to belongs to the caller,
+     * so closing the writer should not close it.
+     */
+    private static class UnclosableChannel implements WritableByteChannel {
+
+        private final WritableByteChannel delegate;
+        private boolean open = true;
+
+        UnclosableChannel(WritableByteChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open && delegate.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
         }
     }
 }
@@ -0,0 +1,342 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.build;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Writes prepared entries to a ZIP stream.
+ * Unlike {@link java.util.zip.ZipOutputStream}, the writer accepts
+ * already compressed data, which allows the entries to be compressed
+ * independently of each other and then written in a deterministic order.
+ * The local headers always include the CRC and the sizes of the entry,
+ * i.e. no data descriptors are written.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ZipNestWriter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGICCOUNT = 0xFFFF;
+    /** the maximum length of the name and of the extra field in a header */
+    private static final int MAX_HEADER_FIELD_LENGTH = 0xFFFF;
+
+    /** general purpose flag indicating the names are UTF-8 encoded */
+    private static final int FLAG_UTF8 = 0x800;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final WritableByteChannel out;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /** the number of bytes flushed to the channel */
+    private long flushed;
+
+    private final List<Record> records = new ArrayList<Record>();
+
+    public ZipNestWriter(WritableByteChannel out) {
+        if (out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+        this.out = out;
+    }
+
+    /**
+     * The current position in the output.
+     *
+     * @return  the current position in the output
+     */
+    public long position() {
+        return flushed + buf.position();
+    }
+
+    /**
+     * Writes the local header followed by the data of the entry.
+     *
+     * @param entry  the entry to write
+     * @throws IOException  in case of a failure
+     * @throws NestException  if the name or the extra of the entry do not fit into the header
+     */
+    void write(PreparedEntry entry) throws IOException, NestException {
+        final Record record = new Record(entry, position());
+        final boolean zip64 = entry.size >= ZIP64_MAGICVAL || entry.compressedSize >= ZIP64_MAGICVAL;
+        final int extraLength = (entry.extra == null ? 0 : entry.extra.length) + (zip64 ? 20 : 0);
+        // the lengths are written as unsigned shorts, a longer value would corrupt the nest
+        if (record.name.length > MAX_HEADER_FIELD_LENGTH) {
+            throw new NestException("The name of " + entry.name + " is " + record.name.length
+                    + " bytes long, which exceeds the ZIP limit of " + MAX_HEADER_FIELD_LENGTH);
+        }
+        final int centralExtraLength = (entry.extra == null ? 0 : entry.extra.length) + centralZip64Length(record);
+        if (Math.max(extraLength, centralExtraLength) > MAX_HEADER_FIELD_LENGTH) {
+            throw new NestException("The extra field of " + entry.name + " is " + Math.max(extraLength, centralExtraLength)
+                    + " bytes long, which exceeds the ZIP limit of " + MAX_HEADER_FIELD_LENGTH);
+        }
+
+        ensureCapacity(30);
+        buf.putInt(LOCSIG);
+        buf.putShort((short) version(entry.method, zip64));
+        buf.putShort((short) FLAG_UTF8);
+        buf.putShort((short) entry.method);
+        buf.putInt((int) entry.dosTime);
+        buf.putInt((int) entry.crc);
+        if (zip64) {
+            buf.putInt((int) ZIP64_MAGICVAL);
+            buf.putInt((int) ZIP64_MAGICVAL);
+        } else {
+            buf.putInt((int) entry.compressedSize);
+            buf.putInt((int) entry.size);
+        }
+        buf.putShort((short) record.name.length);
+        buf.putShort((short) extraLength);
+        put(record.name, 0, record.name.length);
+        if (zip64) {
+            ensureCapacity(20);
+            buf.putShort((short) ZIP64_EXTID);
+            buf.putShort((short) 16);
+            buf.putLong(entry.size);
+            buf.putLong(entry.compressedSize);
+        }
+        if (entry.extra != null) {
+            put(entry.extra, 0, entry.extra.length);
+        }
+
+        if (entry.rawNest != null) {
+            flush();
+            entry.rawNest.transferRawData(entry.rawIndex, out);
+            flushed += entry.compressedSize;
+        } else if (entry.sourceFile != null) {
+            transfer(entry.sourceFile, entry.compressedSize);
+        } else if (entry.dataFile != null) {
+            transfer(entry.dataFile, entry.compressedSize);
+        } else if (entry.compressedSize > 0) {
+            put(entry.data, 0, (int) entry.compressedSize);
+        }
+        records.add(record);
+    }
+
+    /**
+     * Writes the central directory and flushes the output.
+     *
+     * @throws IOException  in case of a failure
+     */
+    public void finish() throws IOException {
+        final long cenOffset = position();
+        for (Record record : records) {
+            writeCentralHeader(record);
+        }
+        final long cenSize = position() - cenOffset;
+        final int count = records.size();
+
+        if (count >= ZIP64_MAGICCOUNT || cenOffset >= ZIP64_MAGICVAL || cenSize >= ZIP64_MAGICVAL) {
+            final long zip64EndOffset = position();
+            ensureCapacity(76);
+            buf.putInt(ZIP64_ENDSIG);
+            buf.putLong(44);
+            buf.putShort((short) 45);
+            buf.putShort((short) 45);
+            buf.putInt(0);
+            buf.putInt(0);
+            buf.putLong(count);
+            buf.putLong(count);
+            buf.putLong(cenSize);
+            buf.putLong(cenOffset);
+
+            buf.putInt(ZIP64_LOCSIG);
+            buf.putInt(0);
+            buf.putLong(zip64EndOffset);
+            buf.putInt(1);
+        }
+
+        ensureCapacity(22);
+        buf.putInt(ENDSIG);
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putShort((short) Math.min(count, ZIP64_MAGICCOUNT));
+        buf.putShort((short) Math.min(count, ZIP64_MAGICCOUNT));
+        buf.putInt((int) Math.min(cenSize, ZIP64_MAGICVAL));
+        buf.putInt((int) Math.min(cenOffset, ZIP64_MAGICVAL));
+        buf.putShort((short) 0);
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * The length of the ZIP64 extra field of the central directory header
+     * of the entry or 0 if the header does not need one.
+     */
+    private static int centralZip64Length(Record record) {
+        final int length = (record.size >= ZIP64_MAGICVAL ? 8 : 0) + (record.compressedSize >= ZIP64_MAGICVAL ? 8 : 0)
+                + (record.offset >= ZIP64_MAGICVAL ? 8 : 0);
+        return length == 0 ? 0 : length + 4;
+    }
+
+    private void writeCentralHeader(Record record) throws IOException {
+        final boolean largeSize = record.size >= ZIP64_MAGICVAL;
+        final boolean largeCompressedSize = record.compressedSize >= ZIP64_MAGICVAL;
+        final boolean largeOffset = record.offset >= ZIP64_MAGICVAL;
+        final int zip64Length = centralZip64Length(record);
+        final int version = version(record.method, zip64Length > 0);
+
+        ensureCapacity(46);
+        buf.putInt(CENSIG);
+        buf.putShort((short) version);
+        buf.putShort((short) version);
+        buf.putShort((short) FLAG_UTF8);
+        buf.putShort((short) record.method);
+        buf.putInt((int) record.dosTime);
+        buf.putInt((int) record.crc);
+        buf.putInt((int) Math.min(record.compressedSize, ZIP64_MAGICVAL));
+        buf.putInt((int) Math.min(record.size, ZIP64_MAGICVAL));
+        buf.putShort((short) record.name.length);
+        buf.putShort((short) ((record.extra == null ? 0 : record.extra.length) + zip64Length));
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putInt(0);
+        buf.putInt((int) Math.min(record.offset, ZIP64_MAGICVAL));
+        put(record.name, 0, record.name.length);
+        if (zip64Length > 0) {
+            ensureCapacity(zip64Length);
+            buf.putShort((short) ZIP64_EXTID);
+            buf.putShort((short) (zip64Length - 4));
+            if (largeSize) {
+                buf.putLong(record.size);
+            }
+            if (largeCompressedSize) {
+                buf.putLong(record.compressedSize);
+            }
+            if (largeOffset) {
+                buf.putLong(record.offset);
+            }
+        }
+        if (record.extra != null) {
+            put(record.extra, 0, record.extra.length);
+        }
+    }
+
+    private void transfer(File file, long length) throws IOException {
+        flush();
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            final FileChannel channel = is.getChannel();
+            long transferred = 0;
+            while (transferred < length) {
+                final long count = channel.transferTo(transferred, length - transferred, out);
+                if (count == 0 && transferred >= channel.size()) {
+                    throw new IOException(file.getAbsolutePath() + " was truncated while the nest was being written");
+                }
+                transferred += count;
+            }
+            flushed += transferred;
+        } finally {
+            IoUtils.safeClose(is);
+        }
+    }
+
+    private static int version(int method, boolean zip64) {
+        if (zip64) {
+            return 45;
+        }
+        return method == ZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        if (length <= buf.remaining()) {
+            buf.put(bytes, offset, length);
+            return;
+        }
+        flush();
+        if (length <= buf.remaining()) {
+            buf.put(bytes, offset, length);
+            return;
+        }
+        final ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+        while (wrapped.hasRemaining()) {
+            flushed += out.write(wrapped);
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buf.remaining() < length) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            flushed += out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * What goes into the central directory record of an entry.
+     */
+    private static class Record {
+        final byte[] name;
+        final byte[] extra;
+        final int method;
+        final long dosTime;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final long offset;
+
+        Record(PreparedEntry entry, long offset) {
+            this.name = entry.name.getBytes(UTF_8);
+            this.extra = entry.extra;
+            this.method = entry.method;
+            this.dosTime = entry.dosTime;
+            this.crc = entry.crc;
+            this.size = entry.size;
+            this.compressedSize = entry.compressedSize;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.expand;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * Materializes the entries of a deduplicated nest which reference
+ * the content of another entry from the already expanded content.
+ *
+ * @author Alexey Loubyansky
+ */
+class DuplicateContent {
+
+    /**
+     * Copies or hard-links the expanded file to the expand path of
+     * the duplicate. If the hard link can't be created, e.g. the files are
+     * on different file stores, the file is copied.
+     * The parent directory of the target must exist.
+     *
+     * @param source  expanded file holding the content
+     * @param target  expand path of the duplicate
+     * @param hardLink  whether to create a hard link instead of copying
+     * @throws NestException  in case of a failure
+     */
+    static void materialize(File source, File target, boolean hardLink) throws NestException {
+        final Path targetPath = target.toPath();
+        try {
+            Files.deleteIfExists(targetPath);
+            if (hardLink) {
+                try {
+                    Files.createLink(targetPath, source.toPath());
+                    return;
+                } catch (IOException e) {
+                    // falls back to copying
+                } catch (UnsupportedOperationException e) {
+                    // falls back to copying
+                }
+            }
+            Files.copy(source.toPath(), targetPath);
+        } catch (IOException e) {
+            throw new NestException("Failed to copy " + source.getAbsolutePath() + " to " + target.getAbsolutePath(), e);
+        }
+    }
+}
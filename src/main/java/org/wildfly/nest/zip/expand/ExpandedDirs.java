@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.zip.expand;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * The directories created (or found existing) while expanding the nest,
+ * so that each directory is created at most once and the file system is
+ * not asked again about the directories of the files in the same folder.
+ * The directories may be created by multiple threads.
+ *
+ * @author Alexey Loubyansky
+ */
+class ExpandedDirs {
+
+    private final Set<File> dirs = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * Creates the directory including its missing parents unless it
+     * has already been created.
+     *
+     * @param dir  directory
+     * @throws NestException  if the directory could not be created
+     */
+    void mkdirs(File dir) throws NestException {
+        if(dirs.contains(dir)) {
+            return;
+        }
+        // another thread may be creating the same directory
+        if(!dir.mkdirs() && !dir.isDirectory()) {
+            throw new NestException("Failed to create directory " + dir.getAbsolutePath());
+        }
+        while(dir != null && dirs.add(dir)) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    void clear() {
+        dirs.clear();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.expand;
+
+import java.io.File;
+
+import org.wildfly.nest.NestException;
+
+/**
+ * A directory with the previously expanded content, e.g. the previous
+ * version of an installation, the unchanged files are hard-linked from
+ * instead of being expanded.
+ *
+ * @author Alexey Loubyansky
+ */
+class ReferenceDir {
+
+    private final String basePath;
+    private final File dir;
+
+    ReferenceDir(File baseExpandDir, File dir) {
+        final String path = baseExpandDir.getAbsolutePath();
+        this.basePath = path.endsWith(File.separator) ? path : path + File.separator;
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the file in the reference directory at the same path relative
+     * to the reference directory as the expand path is relative to the base
+     * expand directory or null if the expand path is not under the base
+     * expand directory.
+     *
+     * @param expandPath  expand path
+     * @return  the corresponding file in the reference directory or null
+     */
+    File resolve(File expandPath) {
+        final String path = expandPath.getAbsolutePath();
+        if(!path.startsWith(basePath)) {
+            return null;
+        }
+        return new File(dir, path.substring(basePath.length()));
+    }
+
+    /**
+     * Hard-links (or, if that is not possible, copies) the corresponding
+     * file of the reference directory to the expand path if its size and
+     * CRC-32 match those of the entry.
+     * The parent directory of the expand path must exist.
+     *
+     * @param expandPath  expand path of the entry
+     * @param size  the size of the content of the entry
+     * @param crc  CRC-32 of the content of the entry
+     * @return  whether the file was linked, i.e. the entry should not be expanded
+     * @throws NestException  in case of a failure
+     */
+    boolean link(File expandPath, long size, long crc) throws NestException {
+        final File reference = resolve(expandPath);
+        if(reference == null || !reference.isFile() || !SyncedPaths.isUpToDate(reference, size, crc)) {
+            return false;
+        }
+        DuplicateContent.materialize(reference, expandPath, true);
+        return true;
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.expand;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.expand.AbstractNestExpander;
+import org.wildfly.nest.expand.EntrySelection;
+import org.wildfly.nest.expand.NestExpandContext;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.AttachmentEntryReader;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.ContentRefAttachmentHandler;
+import org.wildfly.nest.zip.NestAttachments;
+import org.wildfly.nest.zip.RawInflaterInputStream;
+
+/**
+ * Expands the nest while it is being read from a stream, processing
+ * the local headers of the entries as they arrive, i.e. the central
+ * directory is never read.
+ *
+ * <p>The root entry holding the nest attachments is the first one in the nest,
+ * so the nest locations are known before any of the content entries arrives.
+ * The content manifest, on the other hand, is in the trailer, which is the last
+ * entry, so the expanded content is hashed as it is written and verified
+ * against the manifest after all the entries have been expanded.
+ * The CRC-32 of each entry is verified as soon as the entry is expanded.
+ *
+ * <p>The entries are expanded by the calling thread in the order they arrive,
+ * regardless of the number of threads requested.
+ *
+ * <p>When only some of the entries are selected, the raw data of the file
+ * entries that are not selected is spooled to a temporary directory, since
+ * the selected entries of a deduplicated nest may reference their content.
+ *
+ * @author Alexey Loubyansky
+ */
+public class StreamingZipNestExpander extends AbstractNestExpander<StreamingZipNestExpander.LocalEntry> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+    private static final int LOCHDR = 30;
+
+    /** general purpose flag indicating the sizes and the CRC follow the data */
+    private static final int FLAG_DATA_DESCRIPTOR = 0x8;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final InputStream source;
+    private InputStream in;
+    private NestExpandContext ctx;
+
+    /** the entry read ahead of the iteration */
+    private LocalEntry pending;
+    /** the entry whose header has been read but which has not been passed through the metadata and selection filter yet */
+    private LocalEntry lookahead;
+    /** the attachment entries read ahead while looking for the requested one */
+    private final Map<String, byte[]> attachmentEntries = new HashMap<String, byte[]>();
+    /** the last entry whose data may not have been consumed yet */
+    private LocalEntry current;
+    private boolean end;
+
+    private SyncedPaths syncedPaths;
+
+    /** the directories created so far */
+    private final ExpandedDirs expandedDirs = new ExpandedDirs();
+
+    private ReferenceDir referenceDir;
+    private final List<ExpandedFile> expanded = new ArrayList<ExpandedFile>();
+    /** the expanded file entries, the content of deduplicated entries is copied from */
+    private final Map<String, LocalEntry> files = new HashMap<String, LocalEntry>();
+    /** the file entries that were not selected, the selected deduplicated entries may reference their content */
+    private final Map<String, LocalEntry> spooled = new HashMap<String, LocalEntry>();
+    private File spoolDir;
+
+    /**
+     * Creates an expander reading the nest from the stream.
+     * The stream is not closed by the expander.
+     *
+     * @param source  the stream of the nest
+     */
+    public StreamingZipNestExpander(InputStream source) {
+        if(source == null) {
+            throw new IllegalArgumentException("source is null");
+        }
+        this.source = source;
+    }
+
+    @Override
+    protected void prepareToExpand(NestExpandContext ctx) throws NestException {
+        this.ctx = ctx;
+        in = new BufferedInputStream(source, BUFFER_SIZE);
+        if(ctx.getReferenceDir() != null) {
+            referenceDir = new ReferenceDir(ctx.getBaseExpandDir(), ctx.getReferenceDir());
+        }
+        if(ctx.isSync() && ctx.isDeleteExtraneous()) {
+            syncedPaths = new SyncedPaths(ctx.getBaseExpandDir(), ctx.getSelection() == null);
+        }
+    }
+
+    @Override
+    protected byte[] getNestAttachments(NestExpandContext ctx) throws NestException {
+        final LocalEntry first = readEntry();
+        if(first == null) {
+            return null;
+        }
+        if(!first.name.equals(ZipUtils.ROOT_ENTRY_NAME)) {
+            lookahead = first;
+            return null;
+        }
+        skipData(first);
+        return ZipUtils.fromExtraField(first.extra);
+    }
+
+    @Override
+    protected Iterable<LocalEntry> getEntries() throws NestException {
+        return new Iterable<LocalEntry>() {
+            @Override
+            public Iterator<LocalEntry> iterator() {
+                return new Iterator<LocalEntry>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        if(pending == null) {
+                            try {
+                                pending = nextContentEntry();
+                            } catch (NestException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        return pending != null;
+                    }
+
+                    @Override
+                    public LocalEntry next() {
+                        if(!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        current = pending;
+                        pending = null;
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    protected void expandSequentially(NestExpandContext ctx) throws NestException {
+        try {
+            super.expandSequentially(ctx);
+        } catch (IllegalStateException e) {
+            if(e.getCause() instanceof NestException) {
+                throw (NestException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    protected void expandInParallel(NestExpandContext ctx) throws NestException {
+        // the entries have to be consumed in the order they arrive
+        expandSequentially(ctx);
+    }
+
+    @Override
+    protected boolean isDirectory(LocalEntry entry) {
+        return entry.name.endsWith(ZipUtils.ENTRY_SEPARATOR);
+    }
+
+    @Override
+    protected void expandEntry(NestExpandContext ctx, LocalEntry entry) throws NestException {
+
+        final String nestPath = entry.name;
+        final File expandPath = ctx.resolveExpandPath(nestPath);
+        final boolean dir = isDirectory(entry);
+        if(syncedPaths != null) {
+            syncedPaths.add(expandPath, dir);
+        }
+        if (dir) {
+            if(ctx.isSync() && expandPath.isFile()) {
+                expandPath.delete();
+            }
+            expandedDirs.mkdirs(expandPath);
+            return;
+        }
+
+        final LocalEntry source = getContentSource(ctx, entry);
+        if (ctx.isSync() && expandPath.exists()) {
+            if (expandPath.isDirectory()) {
+                IoUtils.recursiveDelete(expandPath);
+            } else if (SyncedPaths.isUpToDate(expandPath, source.size, source.crc)) {
+                files.put(nestPath, entry);
+                return;
+            } else if (!expandPath.delete()) {
+                // the file may be a hard link to a file of another tree (e.g. the one
+                // it was linked from), so it is replaced instead of being rewritten in place
+                throw new NestException("Failed to delete out-of-date " + expandPath.getAbsolutePath());
+            }
+        }
+        expandedDirs.mkdirs(expandPath.getParentFile());
+        if (referenceDir != null && referenceDir.link(expandPath, source.size, source.crc)) {
+            files.put(nestPath, entry);
+            return;
+        }
+        if (source != entry && source.spool == null) {
+            DuplicateContent.materialize(ctx.resolveExpandPath(source.name), expandPath, ctx.isHardLinkDuplicates());
+            files.put(nestPath, entry);
+            return;
+        }
+
+        final ContentManifest manifest = ctx.getContentManifest();
+        CheckedInputStream is = null;
+        final byte[] digest;
+        try {
+            is = new CheckedInputStream(source == entry ? getData(entry) : getSpooledData(source), new CRC32());
+            digest = IoUtils.write(is, expandPath, manifest == null ? null : manifest.getDigests());
+            if(is.read() != -1 || is.getChecksum().getValue() != source.crc) {
+                throw new IOException("CRC-32 mismatch");
+            }
+        } catch (IOException e) {
+            throw new NestException("Failed to expand entry " + nestPath, e);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        expanded.add(new ExpandedFile(nestPath, expandPath, manifest == null ? null : manifest.getAlgorithm(), digest));
+        files.put(nestPath, entry);
+    }
+
+    /**
+     * Returns the entry holding the content of the entry, which, unless
+     * the nest is deduplicated, is the entry itself. The entry holding
+     * the content precedes the entries referencing it in the nest, so it
+     * has already been expanded, unless it was not selected, in which case
+     * its content has been spooled.
+     */
+    private LocalEntry getContentSource(NestExpandContext ctx, LocalEntry entry) throws NestException {
+        final String target = ContentRefAttachmentHandler.getTarget(ctx.getStringTable(), entry.extra);
+        if(target == null) {
+            return entry;
+        }
+        LocalEntry source = files.get(target);
+        if(source == null) {
+            source = spooled.get(target);
+            if(source == null) {
+                throw new NestException(entry.name + " references the content of " + target + " which does not precede it in the stream");
+            }
+        }
+        return source;
+    }
+
+    @Override
+    protected void completeExpand(NestExpandContext ctx) throws NestException {
+        if(syncedPaths != null) {
+            syncedPaths.deleteExtraneous();
+        }
+        final ContentManifest manifest = ctx.getContentManifest();
+        if(manifest == null) {
+            return;
+        }
+        for(ExpandedFile file : expanded) {
+            byte[] digest = file.digest;
+            if(digest == null || !manifest.getAlgorithm().equals(file.algorithm)) {
+                // the digest algorithm wasn't known when the file was expanded
+                try {
+                    digest = HashUtils.hashFile(file.path, manifest.getDigests());
+                } catch (IOException e) {
+                    throw new NestException("Failed to hash " + file.path.getAbsolutePath(), e);
+                }
+            }
+            manifest.verify(file.nestPath, digest);
+        }
+        if(ctx.getSelection() == null) {
+            for(String nestPath : manifest.getNestPaths()) {
+                if(!files.containsKey(nestPath)) {
+                    throw new NestException("Entry " + nestPath + " listed in the content manifest is missing from the nest");
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void tidyUpAfterExpand(NestExpandContext ctx) throws NestException {
+        this.ctx = null;
+        in = null;
+        pending = null;
+        lookahead = null;
+        current = null;
+        syncedPaths = null;
+        referenceDir = null;
+        expanded.clear();
+        files.clear();
+        spooled.clear();
+        if(spoolDir != null) {
+            IoUtils.recursiveDelete(spoolDir);
+            spoolDir = null;
+        }
+        attachmentEntries.clear();
+        expandedDirs.clear();
+    }
+
+    @Override
+    protected byte[] getEntryAttachments(NestExpandContext ctx, LocalEntry entry) throws NestException {
+        return ZipUtils.fromExtraField(entry.extra);
+    }
+
+    /**
+     * The attachment entries immediately follow the entry they belong to,
+     * so they are read ahead when the attachments of the entry, which has
+     * just been expanded, are read. The data of the entry is skipped first,
+     * in case the entry was not expanded from the stream. The first entry
+     * that is not an attachment entry is left for {@link #nextContentEntry()}
+     * to filter. The attachment entries that are not read this way are
+     * skipped by {@link #nextContentEntry()} with the rest of the metadata.
+     */
+    @Override
+    protected AttachmentEntryReader getAttachmentEntryReader() {
+        return new AttachmentEntryReader() {
+            @Override
+            public byte[] read(String entryName) throws NestException {
+                final byte[] stored = attachmentEntries.remove(entryName);
+                if(stored != null) {
+                    return stored;
+                }
+                if(current != null) {
+                    skipData(current);
+                    current = null;
+                }
+                while(lookahead == null) {
+                    final LocalEntry entry = readEntry();
+                    if(entry == null) {
+                        break;
+                    }
+                    if(!entry.name.startsWith(ZipUtils.ATTACHMENTS_ENTRY_PREFIX)) {
+                        lookahead = entry;
+                        break;
+                    }
+                    final byte[] data = readData(entry);
+                    if(entry.name.equals(entryName)) {
+                        return data;
+                    }
+                    attachmentEntries.put(entry.name, data);
+                }
+                throw new NestException("Attachment entry " + entryName + " was not found where expected in the nest stream");
+            }
+        };
+    }
+
+    /**
+     * Returns the next content entry reading and applying the metadata entries
+     * on the way or null if there are no more entries.
+     */
+    private LocalEntry nextContentEntry() throws NestException {
+        if(current != null) {
+            skipData(current);
+            current = null;
+        }
+        final EntrySelection selection = ctx.getSelection();
+        LocalEntry entry = nextEntry();
+        while(entry != null) {
+            if(entry.name.equals(ZipUtils.TRAILER_ENTRY_NAME)) {
+                NestAttachments.TRAILING.read(ctx, readData(entry));
+            } else if(ZipUtils.isNestMetadata(entry.name)) {
+                skipData(entry);
+            } else if(selection != null && !selection.matches(entry.name)) {
+                // a stream can't be indexed, the entries that are not selected are not inflated,
+                // their content is spooled though, since the selected duplicates may reference it
+                spoolData(entry);
+            } else {
+                return entry;
+            }
+            entry = nextEntry();
+        }
+        return null;
+    }
+
+    private LocalEntry nextEntry() throws NestException {
+        if(lookahead == null) {
+            return readEntry();
+        }
+        final LocalEntry entry = lookahead;
+        lookahead = null;
+        return entry;
+    }
+
+    /**
+     * Reads the local header of the next entry or returns null if
+     * the central directory has been reached.
+     */
+    private LocalEntry readEntry() throws NestException {
+        if(end) {
+            return null;
+        }
+        try {
+            final byte[] header = new byte[LOCHDR];
+            readFully(header, 4);
+            final ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            final int sig = buf.getInt(0);
+            if(sig == CENSIG || sig == ENDSIG || sig == ZIP64_ENDSIG) {
+                end = true;
+                return null;
+            }
+            if(sig != LOCSIG) {
+                throw new NestException("Unexpected signature 0x" + Integer.toHexString(sig) + " in the nest stream");
+            }
+            readFully(header, 4, LOCHDR - 4);
+
+            final byte[] name = new byte[buf.getShort(26) & 0xffff];
+            readFully(name, name.length);
+            final byte[] extra = new byte[buf.getShort(28) & 0xffff];
+            readFully(extra, extra.length);
+
+            final LocalEntry entry = new LocalEntry(new String(name, UTF_8), extra);
+            if((buf.getShort(6) & FLAG_DATA_DESCRIPTOR) != 0) {
+                throw new NestException("Entry " + entry.name + " is followed by a data descriptor which is not supported when streaming");
+            }
+            entry.method = buf.getShort(8) & 0xffff;
+            entry.crc = buf.getInt(14) & ZIP64_MAGICVAL;
+            entry.compressedSize = buf.getInt(18) & ZIP64_MAGICVAL;
+            entry.size = buf.getInt(22) & ZIP64_MAGICVAL;
+            if(entry.size == ZIP64_MAGICVAL || entry.compressedSize == ZIP64_MAGICVAL) {
+                readZip64Extra(entry);
+            }
+            entry.remaining = entry.compressedSize;
+            return entry;
+        } catch (IOException e) {
+            throw new NestException("Failed to read the nest stream", e);
+        }
+    }
+
+    private static void readZip64Extra(LocalEntry entry) throws NestException {
+        final ByteBuffer extra = ByteBuffer.wrap(entry.extra).order(ByteOrder.LITTLE_ENDIAN);
+        int pos = 0;
+        while(pos + 4 <= entry.extra.length) {
+            final int id = extra.getShort(pos) & 0xffff;
+            final int length = extra.getShort(pos + 2) & 0xffff;
+            pos += 4;
+            if(id == ZIP64_EXTID) {
+                entry.size = extra.getLong(pos);
+                entry.compressedSize = extra.getLong(pos + 8);
+                return;
+            }
+            pos += length;
+        }
+        throw new NestException("Missing ZIP64 extra field for " + entry.name);
+    }
+
+    private InputStream getData(LocalEntry entry) throws IOException {
+        return decode(entry, getRawData(entry));
+    }
+
+    private InputStream getSpooledData(LocalEntry entry) throws IOException {
+        return decode(entry, new FileInputStream(entry.spool));
+    }
+
+    private InputStream getRawData(final LocalEntry entry) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(entry.remaining == 0) {
+                    return -1;
+                }
+                final int read = in.read(b, off, (int) Math.min(len, entry.remaining));
+                if(read < 0) {
+                    throw new EOFException("Unexpected end of the nest stream in " + entry.name);
+                }
+                entry.remaining -= read;
+                return read;
+            }
+
+            @Override
+            public void close() {
+                // the nest stream remains open
+            }
+        };
+    }
+
+    private static InputStream decode(LocalEntry entry, InputStream raw) throws IOException {
+        switch(entry.method) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                return new RawInflaterInputStream(raw, (int) Math.max(1, Math.min(entry.compressedSize, BUFFER_SIZE)));
+            default:
+                throw new IOException("Unsupported compression method " + entry.method + " of " + entry.name);
+        }
+    }
+
+    private byte[] readData(LocalEntry entry) throws NestException {
+        InputStream is = null;
+        try {
+            is = getData(entry);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) entry.size);
+            IoUtils.copyStream(is, bytes);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new NestException("Failed to read entry " + entry.name, e);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+    }
+
+    /**
+     * Copies the raw data of a file entry that has not been selected to a spool file.
+     */
+    private void spoolData(LocalEntry entry) throws NestException {
+        if(isDirectory(entry) || entry.remaining == 0) {
+            return;
+        }
+        OutputStream os = null;
+        try {
+            if(spoolDir == null) {
+                spoolDir = Files.createTempDirectory("nest-spool").toFile();
+            }
+            entry.spool = File.createTempFile("entry", null, spoolDir);
+            os = new FileOutputStream(entry.spool);
+            IoUtils.copyStream(getRawData(entry), os);
+            os.close();
+        } catch (IOException e) {
+            throw new NestException("Failed to spool entry " + entry.name, e);
+        } finally {
+            IoUtils.safeClose(os);
+        }
+        spooled.put(entry.name, entry);
+    }
+
+    private void skipData(LocalEntry entry) throws NestException {
+        try {
+            while(entry.remaining > 0) {
+                long skipped = in.skip(entry.remaining);
+                if(skipped <= 0) {
+                    if(in.read() == -1) {
+                        throw new EOFException("Unexpected end of the nest stream in " + entry.name);
+                    }
+                    skipped = 1;
+                }
+                entry.remaining -= skipped;
+            }
+        } catch (IOException e) {
+            throw new NestException("Failed to read the nest stream", e);
+        }
+    }
+
+    private void readFully(byte[] b, int len) throws IOException {
+        readFully(b, 0, len);
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            final int read = in.read(b, off, len);
+            if(read < 0) {
+                throw new EOFException("Unexpected end of the nest stream");
+            }
+            off += read;
+            len -= read;
+        }
+    }
+
+    /**
+     * Local header of an entry.
+     */
+    public static class LocalEntry {
+
+        private final String name;
+        private final byte[] extra;
+        private int method;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        /** the number of bytes of the data that haven't been read yet */
+        private long remaining;
+        /** the file the raw data of the entry was spooled to or null */
+        private File spool;
+
+        private LocalEntry(String name, byte[] extra) {
+            this.name = name;
+            this.extra = extra;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static class ExpandedFile {
+        final String nestPath;
+        final File path;
+        final String algorithm;
+        final byte[] digest;
+
+        ExpandedFile(String nestPath, File path, String algorithm, byte[] digest) {
+            this.nestPath = nestPath;
+            this.path = path;
+            this.algorithm = algorithm;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.expand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Collects the expand paths of the entries when the nest is synced into
+ * existing content, so that the files that are not in the nest could be
+ * deleted once all the entries have been expanded.
+ *
+ * @author Alexey Loubyansky
+ */
+class SyncedPaths {
+
+    /**
+     * Whether the file has the size and the CRC-32 of the entry.
+     */
+    static boolean isUpToDate(File file, long size, long crc) throws NestException {
+        if(file.length() != size) {
+            return false;
+        }
+        try {
+            return HashUtils.crc32(file) == crc;
+        } catch (IOException e) {
+            throw new NestException("Failed to read " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /** the expand paths of the entries and their parents */
+    private final Set<File> paths = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    /** the directories the files that are not in the nest are deleted from */
+    private final Set<File> dirs = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * @param baseDir  base expand directory
+     * @param syncBaseDir  whether the files that are not in the nest should
+     *                     be deleted from the base expand directory too, which
+     *                     is not the case when only a part of the nest is expanded
+     */
+    SyncedPaths(File baseDir, boolean syncBaseDir) {
+        if(syncBaseDir) {
+            dirs.add(baseDir.getAbsoluteFile());
+        }
+    }
+
+    void add(File path, boolean dir) {
+        path = path.getAbsoluteFile();
+        if(dir) {
+            dirs.add(path);
+        }
+        while(path != null && paths.add(path)) {
+            path = path.getParentFile();
+        }
+    }
+
+    void deleteExtraneous() throws NestException {
+        for(File dir : dirs) {
+            final File[] children = dir.listFiles();
+            if(children == null) {
+                continue;
+            }
+            for(File child : children) {
+                if(!paths.contains(child) && !IoUtils.recursiveDelete(child)) {
+                    throw new NestException("Failed to delete " + child.getAbsolutePath());
+                }
+            }
+        }
+    }
+}
@@ -22,116 +22,422 @@
 
 package org.wildfly.nest.zip.expand;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.wildfly.nest.NestException;
 import org.wildfly.nest.expand.AbstractNestExpander;
+import org.wildfly.nest.expand.EntrySelection;
 import org.wildfly.nest.expand.NestExpandContext;
+import org.wildfly.nest.util.DigestPool;
 import org.wildfly.nest.util.IoUtils;
 import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.AttachmentEntryReader;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.ContentRefAttachmentHandler;
+import org.wildfly.nest.zip.NestZipFile;
 
 /**
+ * Expands the nest reading it with {@link NestZipFile}. The entries are
+ * identified by their index in the central directory. All the reads are
+ * positional, so the worker threads share the same reader.
+ *
  * @author Alexey Loubyansky
  *
  */
-public class ZipNestExpander extends AbstractNestExpander<ZipEntry> {
+public class ZipNestExpander extends AbstractNestExpander<Integer> {
+
+    /** the handle the nest was opened with or null if the expander opens the nest itself */
+    private final ZipNestHandle handle;
+    private NestZipFile zipFile;
+
+    /** the entries to expand or null if all the entries are expanded */
+    private EntrySelection selection;
+
+    /** the directory the unchanged files are linked from or null */
+    private ReferenceDir referenceDir;
 
-    private ZipFile zipFile;
+    /** the entries of a deduplicated nest referencing the content of other entries */
+    private final Queue<Integer> duplicates = new ConcurrentLinkedQueue<Integer>();
+
+    /** the expand paths of the entries, when syncing and deleting the files that are not in the nest */
+    private SyncedPaths syncedPaths;
+
+    /** the directories created so far */
+    private final ExpandedDirs expandedDirs = new ExpandedDirs();
+
+    public ZipNestExpander() {
+        this.handle = null;
+    }
+
+    /**
+     * Creates an expander which reads the nest using the reader
+     * and the attachments shared through the handle.
+     *
+     * @param handle  opened nest
+     */
+    public ZipNestExpander(ZipNestHandle handle) {
+        this.handle = handle;
+    }
 
     @Override
     protected void prepareToExpand(NestExpandContext ctx) throws NestException {
-        try {
-            zipFile = new ZipFile(ctx.getNestFile());
-        } catch (IOException e) {
-            throw new NestException("Failed to open nest file " + ctx.getNestFile().getAbsolutePath(), e);
+        if(handle != null) {
+            zipFile = handle.getZipFile();
+            // the nest attachments have been read by the handle
+            ctx.setStringTable(handle.getStringTable());
+            ctx.setContentManifest(handle.getContentManifest());
+        } else {
+            try {
+                zipFile = NestZipFile.open(ctx.getNestFile());
+            } catch (IOException e) {
+                throw new NestException("Failed to open nest file " + ctx.getNestFile().getAbsolutePath(), e);
+            }
+        }
+        selection = ctx.getSelection();
+        if(ctx.getReferenceDir() != null) {
+            referenceDir = new ReferenceDir(ctx.getBaseExpandDir(), ctx.getReferenceDir());
+        }
+        if(ctx.isSync() && ctx.isDeleteExtraneous()) {
+            syncedPaths = new SyncedPaths(ctx.getBaseExpandDir(), ctx.getSelection() == null);
+        }
+    }
+
+    @Override
+    protected void completeExpand(NestExpandContext ctx) throws NestException {
+        for(Integer duplicate : duplicates) {
+            expandDuplicate(ctx, duplicate);
+        }
+        if(syncedPaths != null) {
+            syncedPaths.deleteExtraneous();
+        }
+        final ContentManifest manifest = ctx.getContentManifest();
+        if(manifest != null && selection == null) {
+            for(String nestPath : manifest.getNestPaths()) {
+                if(zipFile.indexOf(nestPath) < 0) {
+                    throw new NestException("Entry " + nestPath + " listed in the content manifest is missing from the nest");
+                }
+            }
         }
     }
 
     @Override
     protected void tidyUpAfterExpand(NestExpandContext ctx) throws NestException {
-        IoUtils.safeClose(zipFile);
+        if(handle == null) {
+            IoUtils.safeClose(zipFile);
+        }
+        zipFile = null;
+        selection = null;
+        referenceDir = null;
+        syncedPaths = null;
+        duplicates.clear();
+        expandedDirs.clear();
     }
 
     @Override
     protected byte[] getNestAttachments(NestExpandContext ctx) throws NestException {
-        final ZipEntry root = zipFile.getEntry(ZipUtils.ROOT_ENTRY_NAME);
-        return root == null ? null : root.getExtra();
+        return handle == null ? readNestAttachments(zipFile) : null;
+    }
+
+    @Override
+    protected boolean isDirectory(Integer entry) {
+        return zipFile.isDirectory(entry);
+    }
+
+    @Override
+    protected byte[] getTrailingAttachments(NestExpandContext ctx) throws NestException {
+        return handle == null ? readTrailingAttachments(zipFile) : null;
+    }
+
+    static byte[] readNestAttachments(NestZipFile zipFile) throws NestException {
+        final int root = zipFile.indexOf(ZipUtils.ROOT_ENTRY_NAME);
+        return root < 0 ? null : ZipUtils.fromExtraField(zipFile.getExtra(root));
+    }
+
+    static byte[] readTrailingAttachments(NestZipFile zipFile) throws NestException {
+        final int trailer = zipFile.indexOf(ZipUtils.TRAILER_ENTRY_NAME);
+        if(trailer < 0) {
+            return null;
+        }
+        return readData(zipFile, trailer, "the trailing attachments");
+    }
+
+    @Override
+    protected byte[] getEntryAttachments(NestExpandContext ctx, Integer entry) throws NestException {
+        return ZipUtils.fromExtraField(zipFile.getExtra(entry));
+    }
+
+    @Override
+    protected AttachmentEntryReader getAttachmentEntryReader() {
+        return attachmentEntryReader(zipFile);
+    }
+
+    static AttachmentEntryReader attachmentEntryReader(final NestZipFile zipFile) {
+        return new AttachmentEntryReader() {
+            @Override
+            public byte[] read(String entryName) throws NestException {
+                final int entry = zipFile.indexOf(entryName);
+                if(entry < 0) {
+                    throw new NestException("The nest is missing attachment entry " + entryName);
+                }
+                return readData(zipFile, entry, entryName);
+            }
+        };
+    }
+
+    private static byte[] readData(NestZipFile zipFile, int entry, String what) throws NestException {
+        InputStream is = null;
+        try {
+            is = zipFile.getInputStream(entry);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) zipFile.getSize(entry));
+            IoUtils.copyStream(is, bytes);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new NestException("Failed to read " + what, e);
+        } finally {
+            IoUtils.safeClose(is);
+        }
     }
 
     @Override
-    protected Iterable<ZipEntry> getEntries() throws NestException {
-        return new Iterable<ZipEntry>(){
+    protected Iterable<Integer> getEntries() throws NestException {
+        if(selection != null) {
+            return selectEntries(selection);
+        }
+        return new Iterable<Integer>(){
             @Override
-            public Iterator<ZipEntry> iterator() {
-                return new Iterator<ZipEntry>() {
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
 
-                    final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                    boolean checkForNestRoot = zipFile.getEntry(ZipUtils.ROOT_ENTRY_NAME) != null;
-                    ZipEntry next;
+                    int next = nextContentEntry(0);
 
                     @Override
                     public boolean hasNext() {
-                        if(checkForNestRoot) {
-                            if(entries.hasMoreElements()) {
-                                next = entries.nextElement();
-                                if(ZipUtils.ROOT_ENTRY_NAME.equals(next.getName())) {
-                                    checkForNestRoot = false;
-                                    next = null;
-                                }
-                            }
-                        }
-                        return entries.hasMoreElements();
+                        return next < zipFile.size();
                     }
 
                     @Override
-                    public ZipEntry next() {
-                        if(next != null) {
-                            final ZipEntry tmp = next;
-                            next = null;
-                            hasNext();
-                            return tmp;
+                    public Integer next() {
+                        if(next >= zipFile.size()) {
+                            throw new NoSuchElementException();
                         }
-                        return entries.nextElement();
+                        final int tmp = next;
+                        next = nextContentEntry(next + 1);
+                        return tmp;
                     }
 
                     @Override
                     public void remove() {
                         throw new UnsupportedOperationException();
                     }
+
+                    private int nextContentEntry(int i) {
+                        while(i < zipFile.size() && zipFile.isNestMetadata(i)) {
+                            ++i;
+                        }
+                        return i;
+                    }
                 };
             }
         };
     }
 
+    /**
+     * Looks up the candidates by the literal prefixes of the selection
+     * in the index of the names and returns the selected ones in the order
+     * of the central directory.
+     */
+    private Iterable<Integer> selectEntries(EntrySelection selection) {
+        int[] selected = new int[16];
+        int size = 0;
+        for(String prefix : selection.getPrefixes()) {
+            for(int i : zipFile.indexesWithPrefix(prefix)) {
+                if(!zipFile.isNestMetadata(i) && selection.matches(zipFile.getName(i))) {
+                    if(size == selected.length) {
+                        selected = Arrays.copyOf(selected, size << 1);
+                    }
+                    selected[size++] = i;
+                }
+            }
+        }
+        Arrays.sort(selected, 0, size);
+        final List<Integer> entries = new ArrayList<Integer>(size);
+        for(int i = 0; i < size; ++i) {
+            // the prefixes of the selection may overlap
+            if(i == 0 || selected[i] != selected[i - 1]) {
+                entries.add(selected[i]);
+            }
+        }
+        return entries;
+    }
+
     @Override
-    protected void expandEntry(NestExpandContext ctx, ZipEntry entry) throws NestException {
+    protected void expandEntry(NestExpandContext ctx, Integer entry) throws NestException {
 
-        final String nestPath = entry.getName();
+        final String nestPath = zipFile.getName(entry);
         final File expandPath = ctx.resolveExpandPath(nestPath);
         //System.out.println("expanding " + nestPath + " to " + expandPath.getAbsolutePath());
-        if (entry.isDirectory()) {
-            expandPath.mkdirs();
+        final boolean dir = zipFile.isDirectory(entry);
+        if(syncedPaths != null) {
+            syncedPaths.add(expandPath, dir);
+        }
+        if (dir) {
+            if(ctx.isSync() && expandPath.isFile()) {
+                expandPath.delete();
+            }
+            expandedDirs.mkdirs(expandPath);
+            return;
+        }
+
+        final int source = getContentSource(ctx, entry, nestPath);
+        if (ctx.isSync() && expandPath.exists()) {
+            if (expandPath.isDirectory()) {
+                IoUtils.recursiveDelete(expandPath);
+            } else if (SyncedPaths.isUpToDate(expandPath, zipFile.getSize(source), zipFile.getCrc(source))) {
+                return;
+            } else if (!expandPath.delete()) {
+                // the file may be a hard link to a file of another tree (e.g. the one
+                // it was linked from), so it is replaced instead of being rewritten in place
+                throw new NestException("Failed to delete out-of-date " + expandPath.getAbsolutePath());
+            }
+        }
+        expandedDirs.mkdirs(expandPath.getParentFile());
+        if (referenceDir != null && referenceDir.link(expandPath, zipFile.getSize(source), zipFile.getCrc(source))) {
+            return;
+        }
+        if (source != entry) {
+            // the source may be being expanded by another thread
+            duplicates.add(entry);
             return;
         }
+        expandData(ctx, entry, nestPath, expandPath);
+    }
 
-        if (!expandPath.getParentFile().exists()) {
-            expandPath.getParentFile().mkdirs();
+    /**
+     * Returns the index of the entry holding the content of the entry,
+     * which, unless the nest is deduplicated, is the entry itself.
+     */
+    private int getContentSource(NestExpandContext ctx, int entry, String nestPath) throws NestException {
+        final String target = ContentRefAttachmentHandler.getTarget(ctx.getStringTable(), zipFile.getExtra(entry));
+        if (target == null) {
+            return entry;
+        }
+        final int source = zipFile.indexOf(target);
+        if (source < 0) {
+            throw new NestException(nestPath + " references the content of missing entry " + target);
         }
+        return source;
+    }
+
+    /**
+     * Copies the expanded content to the expand path of the duplicate entry or,
+     * if the entry holding the content was not selected to be expanded,
+     * expands the content to the expand path of the duplicate.
+     */
+    private void expandDuplicate(NestExpandContext ctx, int entry) throws NestException {
+        final String nestPath = zipFile.getName(entry);
+        final int source = getContentSource(ctx, entry, nestPath);
+        final String sourcePath = zipFile.getName(source);
+        final File expandPath = ctx.resolveExpandPath(nestPath);
+        if (selection == null || selection.matches(sourcePath)) {
+            DuplicateContent.materialize(ctx.resolveExpandPath(sourcePath), expandPath, ctx.isHardLinkDuplicates());
+        } else {
+            expandData(ctx, source, nestPath, expandPath);
+        }
+    }
+
+    /**
+     * Expands the data of the entry to the expand path verifying it against
+     * the digest of the nest path in the manifest.
+     */
+    private void expandData(NestExpandContext ctx, int entry, String nestPath, File expandPath) throws NestException {
+        final ContentManifest manifest = ctx.getContentManifest();
         InputStream eis = null;
+        final byte[] digest;
         try {
-            eis = zipFile.getInputStream(entry);
-            IoUtils.copy(eis, expandPath);
+            if (zipFile.getMethod(entry) == ZipEntry.STORED) {
+                digest = expandStored(entry, expandPath, manifest == null ? null : manifest.getDigests());
+            } else {
+                eis = zipFile.getInputStream(entry);
+                digest = IoUtils.write(eis, expandPath, manifest == null ? null : manifest.getDigests());
+            }
         } catch (IOException e) {
-            throw new NestException("Failed to expand entry " + entry.getName(), e);
+            throw new NestException("Failed to expand entry " + nestPath, e);
         } finally {
             IoUtils.safeClose(eis);
         }
+        if(manifest != null) {
+            manifest.verify(nestPath, digest);
+        }
+    }
+
+    /**
+     * Transfers the data of a stored entry from the nest to the target file
+     * with {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+     * If the digest of the content is requested, the data is hashed on its
+     * way to the file.
+     */
+    private byte[] expandStored(int entry, File target, DigestPool digests) throws IOException {
+        final FileOutputStream fos = new FileOutputStream(target);
+        try {
+            if (digests == null) {
+                zipFile.transferRawData(entry, fos.getChannel());
+                fos.close();
+                return null;
+            }
+            final MessageDigest digest = digests.getDigest();
+            zipFile.transferRawData(entry, new DigestingChannel(fos.getChannel(), digest));
+            fos.close();
+            return digest.digest();
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+    }
+
+    /**
+     * Updates the digest with the bytes written to the target channel.
+     */
+    private static class DigestingChannel implements WritableByteChannel {
+
+        private final WritableByteChannel target;
+        private final MessageDigest digest;
+
+        DigestingChannel(WritableByteChannel target, MessageDigest digest) {
+            this.target = target;
+            this.digest = digest;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final ByteBuffer written = src.duplicate();
+            final int count = target.write(src);
+            written.limit(written.position() + count);
+            digest.update(written);
+            return count;
+        }
 
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.zip.expand;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.expand.NestExpandContext;
+import org.wildfly.nest.expand.NestExpandTask;
+import org.wildfly.nest.expand.NestHandle;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.zip.ContentManifest;
+import org.wildfly.nest.zip.NestAttachments;
+import org.wildfly.nest.zip.NestZipFile;
+import org.wildfly.nest.zip.StringTable;
+
+/**
+ * Opened ZIP nest. The central directory and the attachments of the nest
+ * are read when the nest is opened and then shared by the expand tasks,
+ * which read the nest using positional reads of the same {@link NestZipFile}.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ZipNestHandle implements NestHandle {
+
+    public static ZipNestHandle open(File nestFile) throws NestException {
+        if(nestFile == null) {
+            throw new IllegalArgumentException("nestFile is null");
+        }
+        final NestZipFile zipFile;
+        try {
+            zipFile = NestZipFile.open(nestFile);
+        } catch (IOException e) {
+            throw new NestException("Failed to open nest file " + nestFile.getAbsolutePath(), e);
+        }
+        try {
+            return new ZipNestHandle(nestFile, zipFile);
+        } catch (NestException e) {
+            IoUtils.safeClose(zipFile);
+            throw e;
+        }
+    }
+
+    private final File nestFile;
+    private final NestZipFile zipFile;
+    private final StringTable stringTable;
+    private final ContentManifest contentManifest;
+
+    private ZipNestHandle(File nestFile, NestZipFile zipFile) throws NestException {
+        this.nestFile = nestFile;
+        this.zipFile = zipFile;
+        // the attachments are read into a context of their own, the expand tasks then share the result
+        final NestExpandContext attachments = (NestExpandContext) NestExpandTask.FACTORY.create(this);
+        NestAttachments.DEFAULT.read(attachments, ZipNestExpander.readNestAttachments(zipFile),
+                ZipNestExpander.attachmentEntryReader(zipFile));
+        NestAttachments.TRAILING.read(attachments, ZipNestExpander.readTrailingAttachments(zipFile));
+        this.stringTable = attachments.getStringTable();
+        this.contentManifest = attachments.getContentManifest();
+    }
+
+    @Override
+    public File getNestFile() {
+        return nestFile;
+    }
+
+    @Override
+    public NestExpandTask newExpandTask() {
+        return NestExpandTask.FACTORY.create(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+    NestZipFile getZipFile() {
+        return zipFile;
+    }
+
+    StringTable getStringTable() {
+        return stringTable;
+    }
+
+    ContentManifest getContentManifest() {
+        return contentManifest;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.expand;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class NestPathTrieTestCase {
+
+    private static final File BASE = new File("base");
+    private static final File A = new File("linked_a");
+    private static final File AB = new File("linked_ab");
+    private static final File FILE = new File("linked_file.txt");
+
+    @Test
+    public void testMain() throws Exception {
+
+        Assert.assertEquals(new File(BASE, "a/b/c.txt"), NestPathTrie.EMPTY.resolve("a/b/c.txt", BASE));
+
+        final Map<String, File> linked = new HashMap<String, File>();
+        linked.put("a/", A);
+        linked.put("a/b/", AB);
+        linked.put("a/file.txt", FILE);
+        final NestPathTrie trie = NestPathTrie.build(linked);
+
+        // the deepest linked directory wins
+        Assert.assertEquals(A, trie.resolve("a/", BASE));
+        Assert.assertEquals(new File(A, "c.txt"), trie.resolve("a/c.txt", BASE));
+        Assert.assertEquals(new File(A, "bb/c.txt"), trie.resolve("a/bb/c.txt", BASE));
+        Assert.assertEquals(AB, trie.resolve("a/b/", BASE));
+        Assert.assertEquals(new File(AB, "c/d.txt"), trie.resolve("a/b/c/d.txt", BASE));
+
+        // a linked file matches only the same path
+        Assert.assertEquals(FILE, trie.resolve("a/file.txt", BASE));
+        Assert.assertEquals(new File(A, "file.txt.bak"), trie.resolve("a/file.txt.bak", BASE));
+        Assert.assertEquals(new File(A, "file"), trie.resolve("a/file", BASE));
+
+        // a path matching a linked directory without the separator is not under it
+        Assert.assertEquals(new File(BASE, "a"), trie.resolve("a", BASE));
+        Assert.assertEquals(new File(BASE, "ab/c.txt"), trie.resolve("ab/c.txt", BASE));
+        Assert.assertEquals(new File(BASE, "b/c.txt"), trie.resolve("b/c.txt", BASE));
+        Assert.assertEquals(new File(BASE, ""), trie.resolve("", BASE));
+
+        linked.put("", A);
+        Assert.assertEquals(A, NestPathTrie.build(linked).resolve("", BASE));
+
+        // deep links must not exhaust the stack
+        final StringBuilder deep = new StringBuilder();
+        for(int i = 0; i < 10000; ++i) {
+            deep.append("d/");
+        }
+        linked.clear();
+        linked.put(deep.toString(), AB);
+        Assert.assertEquals(new File(AB, "c.txt"), NestPathTrie.build(linked).resolve(deep + "c.txt", BASE));
+        Assert.assertEquals(new File(BASE, "d/c.txt"), NestPathTrie.build(linked).resolve("d/c.txt", BASE));
+    }
+}
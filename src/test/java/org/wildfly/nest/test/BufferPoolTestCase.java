@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.util.BufferPool;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class BufferPoolTestCase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final BufferPool pool = new BufferPool(16, 2);
+        Assert.assertEquals(16, pool.getBufferSize());
+
+        // the released arrays are reused up to the bound
+        final byte[] a1 = pool.getArray();
+        final byte[] a2 = pool.getArray();
+        final byte[] a3 = pool.getArray();
+        Assert.assertEquals(16, a1.length);
+        Assert.assertNotSame(a1, a2);
+        pool.release(a1);
+        pool.release(a2);
+        pool.release(a3);
+        final byte[] r1 = pool.getArray();
+        final byte[] r2 = pool.getArray();
+        Assert.assertTrue(r1 == a1 || r1 == a2);
+        Assert.assertTrue(r2 == a1 || r2 == a2);
+        Assert.assertNotSame(r1, r2);
+        final byte[] r3 = pool.getArray();
+        Assert.assertNotSame(a3, r3);
+        Assert.assertEquals(16, r3.length);
+
+        // arrays of another size are not pooled
+        final byte[] other = new byte[8];
+        pool.release(other);
+        pool.release((byte[]) null);
+        Assert.assertNotSame(other, pool.getArray());
+
+        // the released direct buffers are cleared and reused up to the bound
+        final ByteBuffer b1 = pool.getDirectBuffer();
+        final ByteBuffer b2 = pool.getDirectBuffer();
+        final ByteBuffer b3 = pool.getDirectBuffer();
+        Assert.assertTrue(b1.isDirect());
+        Assert.assertEquals(16, b1.capacity());
+        b1.put((byte) 1).flip();
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        final ByteBuffer d1 = pool.getDirectBuffer();
+        final ByteBuffer d2 = pool.getDirectBuffer();
+        Assert.assertTrue(d1 == b1 || d1 == b2);
+        Assert.assertTrue(d2 == b1 || d2 == b2);
+        Assert.assertNotSame(d1, d2);
+        Assert.assertEquals(0, b1.position());
+        Assert.assertEquals(16, b1.limit());
+        Assert.assertNotSame(b3, pool.getDirectBuffer());
+
+        // heap buffers and direct buffers of another size are not pooled
+        final ByteBuffer heap = ByteBuffer.allocate(16);
+        final ByteBuffer smaller = ByteBuffer.allocateDirect(8);
+        pool.release(heap);
+        pool.release(smaller);
+        pool.release((ByteBuffer) null);
+        final ByteBuffer taken = pool.getDirectBuffer();
+        Assert.assertNotSame(heap, taken);
+        Assert.assertNotSame(smaller, taken);
+        Assert.assertTrue(taken.isDirect());
+        Assert.assertEquals(16, taken.capacity());
+
+        try {
+            new BufferPool(0, 1);
+            Assert.fail("zero buffer size");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new BufferPool(16, 0);
+            Assert.fail("zero pool size");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
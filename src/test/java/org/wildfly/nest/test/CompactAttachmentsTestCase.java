@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.AttachmentInput;
+import org.wildfly.nest.zip.AttachmentOutput;
+import org.wildfly.nest.zip.NestZipFile;
+import org.wildfly.nest.zip.StringTable;
+import org.wildfly.nest.zip.StringTableAttachmentHandler;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class CompactAttachmentsTestCase extends NestBuildTestBase {
+
+    private static final String ROOT_LOCATION = "NEST_MODULES_ROOT_LOCATION";
+    private static final String MODULE_LOCATION = "NEST_MODULE_LOCATION_WITH_A_RATHER_LONG_NAME_";
+
+    @Test
+    public void testMain() throws Exception {
+
+        final StringTable strings = StringTable.create();
+        Assert.assertEquals(0, strings.add("a"));
+        Assert.assertEquals(1, strings.add("\u00e9t\u00e9"));
+        Assert.assertEquals(0, strings.add("a"));
+        final StringTable readStrings = StringTable.fromByteArray(strings.toByteArray());
+        Assert.assertEquals(2, readStrings.size());
+        Assert.assertEquals("\u00e9t\u00e9", readStrings.get(1));
+
+        final int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        final AttachmentOutput out = new AttachmentOutput();
+        out.reset(strings);
+        for(int value : values) {
+            out.writeVarInt(value);
+        }
+        out.writeString("\u00e9t\u00e9");
+        final byte[] bytes = out.toByteArray();
+        final AttachmentInput in = new AttachmentInput();
+        in.reset(readStrings, bytes, 0, bytes.length);
+        for(int value : values) {
+            Assert.assertEquals(value, in.readVarInt());
+        }
+        Assert.assertEquals("\u00e9t\u00e9", in.readString());
+        Assert.assertFalse(in.hasRemaining());
+
+        final File modulesDir = IoUtils.mkdir(testDir, "modules");
+        final NestBuildTask task = Nest.create().nameNestLocation(ROOT_LOCATION, "modules");
+        final NestDir expectedTree = NestDir.root();
+        final NestDir modulesTree = expectedTree.newDir("modules");
+        for(int i = 0; i < 20; ++i) {
+            final File moduleDir = IoUtils.mkdir(modulesDir, "module" + i);
+            Util.newFile(moduleDir, "module.xml");
+            Util.newFile(moduleDir, "module" + i + ".jar");
+            task.nameNestLocation(MODULE_LOCATION + i, ROOT_LOCATION, "module" + i)
+                .add(moduleDir.getAbsolutePath()).underLocation(MODULE_LOCATION + i);
+            modulesTree.newDir("module" + i).add(moduleDir);
+        }
+        final File nestZip = task.build(testDir, "nest.zip");
+
+        final NestZipFile zipFile = NestZipFile.open(nestZip);
+        try {
+            final StringTable table = StringTableAttachmentHandler.getStringTable(ZipUtils.fromExtraField(zipFile.getExtra(zipFile.indexOf("./"))));
+            Assert.assertNotNull(table);
+            Assert.assertTrue(table.indexOf(MODULE_LOCATION + 7) >= 0);
+            // the location names are stored once, the entries refer to them by index
+            int located = 0;
+            for(int i = 0; i < zipFile.size(); ++i) {
+                final byte[] attachments = ZipUtils.fromExtraField(zipFile.getExtra(i));
+                if(attachments != null && zipFile.getName(i).startsWith("modules/")) {
+                    Assert.assertTrue(zipFile.getName(i) + " " + attachments.length, attachments.length < 16);
+                    ++located;
+                }
+            }
+            Assert.assertEquals(20, located);
+        } finally {
+            IoUtils.safeClose(zipFile);
+        }
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(nestZip).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+    }
+}
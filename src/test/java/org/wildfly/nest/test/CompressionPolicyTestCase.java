@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.build.CompressionPolicy;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class CompressionPolicyTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        Util.newFile(nestBase, "lib.JAR");
+
+        final StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 1000; ++i) {
+            text.append(Util.randomString());
+        }
+        final OutputStream gzip = new GZIPOutputStream(new FileOutputStream(new File(nestBase, "text.data")));
+        try {
+            gzip.write(text.toString().getBytes());
+        } finally {
+            IoUtils.safeClose(gzip);
+        }
+
+        final byte[] bytes = new byte[100000];
+        new Random(1).nextBytes(bytes);
+        write(new File(nestBase, "random.bin"), bytes);
+        write(new File(nestBase, "text.bin"), text.toString().getBytes());
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .compression(CompressionPolicy.any(
+                        CompressionPolicy.storeExtensions("jar"),
+                        CompressionPolicy.storeCompressedContent(),
+                        CompressionPolicy.adaptive()))
+                .contentManifest("SHA-1")
+                .parallel(2)
+                .build(testDir, "nest.zip");
+
+        final ZipFile zip = new ZipFile(nestZip);
+        try {
+            // too small to benefit from compression
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("nest_base/test.txt").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("nest_base/lib.JAR").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("nest_base/text.data").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("nest_base/random.bin").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("nest_base/text.bin").getMethod());
+        } finally {
+            zip.close();
+        }
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+        assertZipContent(nestZip, expectedTree);
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(nestZip).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+
+        // the stored entries are transferred without being hashed
+        final File notVerifiedNest = new File(testDir, "not-verified-nest");
+        Nest.open(nestZip).verifyContent(false).parallel(2).expand(notVerifiedNest);
+        expectedTree.assertMatches(notVerifiedNest);
+    }
+
+    private static void write(File f, byte[] bytes) throws IOException {
+        final FileOutputStream fos = new FileOutputStream(f);
+        try {
+            fos.write(bytes);
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Parallel expands of the files of different branches of a deep tree into
+ * the same directory. The directory entries are not selected, so the
+ * directories of the files are created concurrently by the worker threads
+ * of each expand and the directories the branches share by the expands.
+ *
+ * @author Alexey Loubyansky
+ */
+public class ConcurrentExpandTestCase extends NestBuildTestBase {
+
+    private static final int DEPTH = 25;
+    private static final int BRANCHES = 8;
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        File deepDir = nestBase;
+        final StringBuilder deepPath = new StringBuilder("nest_base/");
+        for(int i = 0; i < DEPTH; ++i) {
+            deepDir = IoUtils.mkdir(deepDir, "level" + i);
+            deepPath.append("level").append(i).append('/');
+        }
+        for(int i = 0; i < BRANCHES; ++i) {
+            final File branch = IoUtils.mkdir(deepDir, "branch" + i, "dir");
+            for(int j = 0; j < 20; ++j) {
+                Util.newFile(branch, "file" + j + ".txt");
+            }
+        }
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .build(testDir, "nest.zip");
+
+        final File sequential = new File(testDir, "sequential");
+        Nest.open(nestZip).expand(sequential);
+
+        final File concurrent = new File(testDir, "concurrent");
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(BRANCHES);
+        try {
+            final List<Future<Void>> expands = new ArrayList<Future<Void>>(BRANCHES);
+            for(int i = 0; i < BRANCHES; ++i) {
+                final String branchFiles = deepPath.toString() + "branch" + i + "/dir/*.txt";
+                expands.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        Nest.open(nestZip)
+                            .includeGlob(branchFiles)
+                            .parallel(4)
+                            .expand(concurrent);
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<Void> expand : expands) {
+                expand.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        NestDir.from(sequential).assertMatches(concurrent);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ContentManifestTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        Util.newFile(aDir, "a1TestFile.txt");
+        final File bDir = IoUtils.mkdir(aDir, "b");
+        Util.newFile(bDir, "b1TestFile.txt");
+
+        // random bytes are stored by the deflater as they are
+        final byte[] bytes = new byte[4096];
+        new Random(1).nextBytes(bytes);
+        final FileOutputStream fos = new FileOutputStream(new File(bDir, "random.bin"));
+        try {
+            fos.write(bytes);
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-256")
+                .parallel(2)
+                .build(testDir, "nest.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+        assertZipContent(nestZip, expectedTree);
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(nestZip).parallel(2).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+
+        // modify the content of the random file in the nest
+        final RandomAccessFile raf = new RandomAccessFile(nestZip, "rw");
+        try {
+            final byte[] nestBytes = new byte[(int) raf.length()];
+            raf.readFully(nestBytes);
+            final int i = indexOf(nestBytes, bytes, 1024, 64);
+            Assert.assertTrue(i > 0);
+            raf.seek(i);
+            raf.write(~nestBytes[i]);
+        } finally {
+            raf.close();
+        }
+
+        try {
+            Nest.open(nestZip).expand(new File(testDir, "corrupted-nest"));
+            Assert.fail("the content should not match the manifest");
+        } catch(NestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("random.bin"));
+        }
+
+        Nest.open(nestZip).verifyContent(false).expand(new File(testDir, "not-verified-nest"));
+
+        // remove an entry listed in the manifest from the nest
+        final File completeZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-256")
+                .build(testDir, "complete.zip");
+        final File incompleteZip = new File(testDir, "incomplete.zip");
+        copyZip(completeZip, incompleteZip, "nest_base/a/a1TestFile.txt");
+
+        try {
+            Nest.open(incompleteZip).parallel(2).expand(new File(testDir, "incomplete-nest"));
+            Assert.fail("the entry listed in the manifest should be missing");
+        } catch(NestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("a1TestFile.txt"));
+        }
+        final FileInputStream nestStream = new FileInputStream(incompleteZip);
+        try {
+            Nest.open(nestStream).expand(new File(testDir, "incomplete-streamed-nest"));
+            Assert.fail("the entry listed in the manifest should be missing");
+        } catch(NestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("a1TestFile.txt"));
+        } finally {
+            IoUtils.safeClose(nestStream);
+        }
+
+        // the selected entries are all in the nest
+        final File selectedNest = new File(testDir, "selected-nest");
+        Nest.open(incompleteZip).includePath("nest_base/a/b").expand(selectedNest);
+        Assert.assertTrue(new File(selectedNest, "nest_base/a/b/random.bin").isFile());
+    }
+
+    private static void copyZip(File from, File to, String skippedEntry) throws Exception {
+        final ZipInputStream zis = new ZipInputStream(new FileInputStream(from));
+        final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(to));
+        try {
+            ZipEntry entry = zis.getNextEntry();
+            while(entry != null) {
+                if(!entry.getName().equals(skippedEntry)) {
+                    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    final byte[] buf = new byte[4096];
+                    int read = zis.read(buf);
+                    while(read > 0) {
+                        data.write(buf, 0, read);
+                        read = zis.read(buf);
+                    }
+                    final byte[] bytes = data.toByteArray();
+                    final CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    final ZipEntry copy = new ZipEntry(entry.getName());
+                    copy.setMethod(ZipEntry.STORED);
+                    copy.setSize(bytes.length);
+                    copy.setCompressedSize(bytes.length);
+                    copy.setCrc(crc.getValue());
+                    copy.setTime(entry.getTime());
+                    copy.setExtra(entry.getExtra());
+                    zos.putNextEntry(copy);
+                    zos.write(bytes);
+                    zos.closeEntry();
+                }
+                entry = zis.getNextEntry();
+            }
+        } finally {
+            IoUtils.safeClose(zis);
+            IoUtils.safeClose(zos);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int offset, int length) {
+        for(int i = 0; i <= bytes.length - length; ++i) {
+            int j = 0;
+            while(j < length && bytes[i + j] == pattern[offset + j]) {
+                ++j;
+            }
+            if(j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.ContentRefAttachmentHandler;
+import org.wildfly.nest.zip.NestZipFile;
+import org.wildfly.nest.zip.StringTable;
+import org.wildfly.nest.zip.StringTableAttachmentHandler;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class DeduplicationTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File modules = IoUtils.mkdir(nestBase, "modules");
+        final byte[] lib = new byte[65536];
+        new Random(1).nextBytes(lib);
+        writeFile(IoUtils.mkdir(modules, "a"), "lib.jar", lib);
+        writeFile(IoUtils.mkdir(modules, "b"), "lib.jar", lib);
+        writeFile(IoUtils.mkdir(modules, "c"), "copy.jar", lib);
+        final byte[] other = lib.clone();
+        other[0] = (byte) ~other[0];
+        writeFile(IoUtils.mkdir(modules, "d"), "other.jar", other);
+
+        final File plainZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .build(testDir, "plain.zip");
+        final NestBuildTask task = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-1")
+                .deduplicate();
+        final File nestZip = task.build(testDir, "nest.zip");
+        Assert.assertTrue(plainZip.length() - nestZip.length() > lib.length * 3 / 2);
+
+        final NestZipFile zipFile = NestZipFile.open(nestZip);
+        try {
+            final StringTable strings = StringTableAttachmentHandler.getStringTable(ZipUtils.fromExtraField(zipFile.getExtra(zipFile.indexOf("./"))));
+            Assert.assertNotNull(strings);
+            // the first one in the nest holds the content, the order depends on the directory listing
+            final String[] identical = {"nest_base/modules/a/lib.jar", "nest_base/modules/b/lib.jar", "nest_base/modules/c/copy.jar"};
+            int first = -1;
+            for(String name : identical) {
+                final int i = zipFile.indexOf(name);
+                if(first < 0 || i < first) {
+                    first = i;
+                }
+            }
+            Assert.assertNull(ContentRefAttachmentHandler.getTarget(strings, zipFile.getExtra(first)));
+            Assert.assertEquals(lib.length, zipFile.getSize(first));
+            for(String name : identical) {
+                final int i = zipFile.indexOf(name);
+                if(i != first) {
+                    Assert.assertEquals(0, zipFile.getCompressedSize(i));
+                    Assert.assertEquals(zipFile.getName(first), ContentRefAttachmentHandler.getTarget(strings, zipFile.getExtra(i)));
+                }
+            }
+            Assert.assertNull(ContentRefAttachmentHandler.getTarget(strings, zipFile.getExtra(zipFile.indexOf("nest_base/modules/d/other.jar"))));
+        } finally {
+            IoUtils.safeClose(zipFile);
+        }
+
+        // the first of the identical files holds the content regardless of the number of threads
+        final ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        task.parallel(3).build(parallel);
+        Assert.assertArrayEquals(Files.readAllBytes(nestZip.toPath()), parallel.toByteArray());
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+
+        final File expanded = new File(testDir, "expanded");
+        Nest.open(nestZip).parallel(2).expand(expanded);
+        expectedTree.assertMatches(expanded);
+
+        final File linked = new File(testDir, "linked");
+        Nest.open(nestZip).hardLinkDuplicates(true).expand(linked);
+        expectedTree.assertMatches(linked);
+
+        final File streamed = new File(testDir, "streamed");
+        Nest.open(new ByteArrayInputStream(parallel.toByteArray())).expand(streamed);
+        expectedTree.assertMatches(streamed);
+
+        // a duplicate is expanded from the content of the entry which is not selected
+        final File selected = new File(testDir, "selected");
+        Nest.open(nestZip).includePath("nest_base/modules/b").includePath("nest_base/modules/c").expand(selected);
+        final NestDir expectedSelection = NestDir.root();
+        expectedSelection.newDir("nest_base", "modules").add(new File(modules, "b")).add(new File(modules, "c"));
+        expectedSelection.assertMatches(selected);
+
+        // the same from the stream, only one of the identical files is the first one
+        for(String dir : new String[]{"a", "b", "c"}) {
+            final File selectedStream = new File(testDir, "selected-stream-" + dir);
+            Nest.open(new ByteArrayInputStream(parallel.toByteArray()))
+                .includePath("nest_base/modules/" + dir)
+                .verifyContent(true)
+                .expand(selectedStream);
+            final NestDir expectedStreamSelection = NestDir.root();
+            expectedStreamSelection.newDir("nest_base", "modules").add(new File(modules, dir));
+            expectedStreamSelection.assertMatches(selectedStream);
+        }
+    }
+
+    private static void writeFile(File dir, String name, byte[] content) throws Exception {
+        final FileOutputStream fos = new FileOutputStream(new File(dir, name));
+        try {
+            fos.write(content);
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+    }
+}
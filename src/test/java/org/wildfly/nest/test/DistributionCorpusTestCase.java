@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.DistributionCorpus;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class DistributionCorpusTestCase extends NestBuildTestBase {
+
+    private static DistributionCorpus corpus(long seed) {
+        return DistributionCorpus.seed(seed)
+            .modules(60)
+            .largeFiles(2, 1 << 20)
+            .maxBlobSize(32 << 10)
+            .duplicateRatio(0.3);
+    }
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File homeDir = IoUtils.mkdir(testDir, "home");
+        final DistributionCorpus corpus = corpus(42).generate(homeDir);
+        Assert.assertTrue(corpus.getFiles() > 60 * 4);
+        Assert.assertTrue(corpus.getDuplicates() > 0);
+        Assert.assertFalse(corpus.getModuleGroupLocations().isEmpty());
+
+        // the same seed generates the same tree, another seed a different one
+        final File sameDir = IoUtils.mkdir(testDir, "same");
+        final DistributionCorpus same = corpus(42).generate(sameDir);
+        Assert.assertEquals(corpus.getFiles(), same.getFiles());
+        Assert.assertEquals(corpus.getDirs(), same.getDirs());
+        Assert.assertEquals(corpus.getBytes(), same.getBytes());
+        Assert.assertArrayEquals(HashUtils.hashFile(homeDir), HashUtils.hashFile(sameDir));
+        NestDir.from(homeDir).assertMatches(sameDir);
+
+        final File otherDir = IoUtils.mkdir(testDir, "other");
+        corpus(43).generate(otherDir);
+        Assert.assertFalse(Arrays.equals(HashUtils.hashFile(homeDir), HashUtils.hashFile(otherDir)));
+
+        // the locations put the tree into the nest at the same paths
+        final File nestZip = corpus.addTo(Nest.create(), homeDir).build(testDir, "nest.zip");
+        final NestDir expectedTree = NestDir.from(homeDir);
+        assertZipContent(nestZip, expectedTree);
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(nestZip).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+
+        // the duplicate blobs are stored once
+        final File dedupZip = corpus.addTo(Nest.create(), homeDir).deduplicate().build(testDir, "dedup.zip");
+        Assert.assertTrue(dedupZip.length() < nestZip.length());
+        final File expandedDedup = new File(testDir, "expanded-dedup");
+        Nest.open(dedupZip).expand(expandedDedup);
+        expectedTree.assertMatches(expandedDedup);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class IncrementalBuildTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        final File a1 = Util.newFile(aDir, "a1TestFile.txt");
+        final File bDir = IoUtils.mkdir(aDir, "b");
+        Util.newFile(bDir, "b1TestFile.txt");
+        // modified after 2043, when the MS-DOS year reaches the sign bit of an int
+        final File future = Util.newFile(aDir, "future.txt");
+        final long futureModified = new GregorianCalendar(2050, Calendar.JUNE, 1).getTimeInMillis();
+        future.setLastModified(futureModified);
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-256")
+                .build(testDir, "nest.zip");
+        final File originalNest = new File(testDir, "original.zip");
+        IoUtils.copyFile(nestZip, originalNest);
+
+        // change the content of a file keeping its size and modification time,
+        // so that it looks unchanged unless its CRC is compared
+        final byte[] originalA1 = HashUtils.hashFile(a1);
+        final long a1Modified = a1.lastModified();
+        write(a1, Util.randomString());
+        a1.setLastModified(a1Modified);
+        final byte[] originalFuture = HashUtils.hashFile(future);
+        write(future, Util.randomString());
+        future.setLastModified(futureModified);
+        final File c1 = Util.newFile(bDir, "c1TestFile.txt");
+
+        // rebuild replacing the previous nest
+        Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-256")
+                .parallel(2)
+                .incrementalFrom(nestZip)
+                .build(testDir, "nest.zip");
+        Assert.assertFalse(new File(testDir, "nest.zip.previous").exists());
+
+        File expanded = new File(testDir, "expanded");
+        Nest.open(nestZip).expand(expanded);
+        Assert.assertArrayEquals(originalA1, HashUtils.hashFile(new File(expanded, "nest_base/a/a1TestFile.txt")));
+        Assert.assertArrayEquals(originalFuture, HashUtils.hashFile(new File(expanded, "nest_base/a/future.txt")));
+        Assert.assertArrayEquals(HashUtils.hashFile(c1), HashUtils.hashFile(new File(expanded, "nest_base/a/b/c1TestFile.txt")));
+
+        // the CRC of the changed file doesn't match
+        final File checkedNest = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-1")
+                .incrementalFrom(originalNest, true)
+                .build(testDir, "checked.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+        assertZipContent(checkedNest, expectedTree);
+        expanded = new File(testDir, "expanded-checked");
+        Nest.open(checkedNest).expand(expanded);
+        expectedTree.assertMatches(expanded);
+    }
+
+    private static void write(File f, String content) throws IOException {
+        final FileOutputStream fos = new FileOutputStream(f);
+        try {
+            fos.write(content.getBytes());
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.NestTraceListener;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.util.ZipUtils;
+import org.wildfly.nest.zip.AttachmentEntryWriter;
+import org.wildfly.nest.zip.NestZipFile;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class LargeAttachmentsTestCase extends NestBuildTestBase {
+
+    private static final String LOCATION = "NEST_LOCATION_WITH_A_RATHER_LONG_NAME_";
+    private static final int LOCATIONS = 2000;
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File aDir = IoUtils.mkdir(testDir, "a");
+        final File aTestFile = Util.newFile(aDir, "aTestFile.txt");
+
+        // the nest locations don't fit into the 64 KB extra field of the root entry
+        final NestBuildTask task = Nest.create().nameNestLocation("NEST_ROOT", "root");
+        for(int i = 0; i < LOCATIONS; ++i) {
+            task.nameNestLocation(LOCATION + i, "NEST_ROOT", "location" + i);
+        }
+        final File nestZip = task.add(aTestFile.getAbsolutePath()).underLocation(LOCATION + (LOCATIONS - 1))
+            .build(testDir, "nest.zip");
+
+        final NestZipFile zipFile = NestZipFile.open(nestZip);
+        try {
+            Assert.assertTrue(ZipUtils.fromExtraField(zipFile.getExtra(zipFile.indexOf(ZipUtils.ROOT_ENTRY_NAME))).length < AttachmentEntryWriter.INLINE_LIMIT);
+            final int attachments = zipFile.indexOf(ZipUtils.ATTACHMENTS_ENTRY_PREFIX + 0);
+            Assert.assertTrue(attachments >= 0);
+            Assert.assertTrue(zipFile.getSize(attachments) > ZipUtils.MAX_EXTRA_DATA_LENGTH);
+            Assert.assertTrue(zipFile.getCompressedSize(attachments) < zipFile.getSize(attachments));
+        } finally {
+            IoUtils.safeClose(zipFile);
+        }
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.newDir("root").newDir("location" + (LOCATIONS - 1)).add(aTestFile);
+
+        final List<String> read = new ArrayList<String>();
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(nestZip).trace(new Recorder(read)).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+        Assert.assertTrue(read.contains(LOCATION + (LOCATIONS - 1)));
+
+        read.clear();
+        final File streamedNest = new File(testDir, "streamed-nest");
+        final InputStream is = new FileInputStream(nestZip);
+        try {
+            Nest.open(is).trace(new Recorder(read)).expand(streamedNest);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        expectedTree.assertMatches(streamedNest);
+        Assert.assertTrue(read.contains(LOCATION + (LOCATIONS - 1)));
+
+        // the attachment entries are metadata, a plain unzip skips them
+        assertZipContent(nestZip, expectedTree);
+
+        // unlike the attachments, the name of an entry can't be stored elsewhere
+        final StringBuilder longPath = new StringBuilder();
+        while(longPath.length() <= 65535) {
+            longPath.append("directory/");
+        }
+        try {
+            Nest.create().add(aTestFile.getAbsolutePath()).under(longPath.toString()).build(testDir, "long-name.zip");
+            Assert.fail("the entry name should not fit into the header");
+        } catch(NestException e) {
+            Throwable cause = e;
+            while(cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            Assert.assertTrue(cause.getMessage(), cause.getMessage().contains("exceeds the ZIP limit"));
+        }
+    }
+
+    private static class Recorder implements NestTraceListener {
+
+        private final List<String> locationNames;
+
+        Recorder(List<String> locationNames) {
+            this.locationNames = locationNames;
+        }
+
+        @Override
+        public void trace(String source, String event, Object subject) {
+            if("NEST_LOCATIONS".equals(source) && "read location name".equals(event)) {
+                locationNames.add((String) subject);
+            }
+        }
+    }
+}
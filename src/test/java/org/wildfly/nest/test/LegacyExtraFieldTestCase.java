@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.util.ZipUtils;
+
+/**
+ * The nests built before the attachments were wrapped into the nest
+ * extra field stored the attachments as the whole extra of the entries.
+ *
+ * @author Alexey Loubyansky
+ */
+public class LegacyExtraFieldTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        final File original = Util.newFile(aDir, "a1TestFile.txt");
+        final File bDir = IoUtils.mkdir(nestBase, "b");
+        Files.copy(original.toPath(), new File(bDir, "a1TestFile.txt").toPath());
+
+        final File nestZip = Nest.create()
+                .nameNestLocation("NEST_A", "nest_base/a")
+                .add(nestBase.getAbsolutePath())
+                .deduplicate()
+                .build(testDir, "nest.zip");
+
+        final byte[] attachments = "attachments".getBytes("UTF-8");
+        Assert.assertArrayEquals(attachments, ZipUtils.fromExtraField(ZipUtils.toExtraField(attachments)));
+        Assert.assertArrayEquals(attachments, ZipUtils.fromExtraField(attachments));
+
+        // unwrap the attachments of the entries, the copy of the file is a reference to the original
+        final File legacyZip = new File(testDir, "legacy.zip");
+        final ZipInputStream zis = new ZipInputStream(new FileInputStream(nestZip));
+        final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(legacyZip));
+        int unwrapped = 0;
+        try {
+            ZipEntry entry = zis.getNextEntry();
+            while(entry != null) {
+                final ByteArrayOutputStream data = new ByteArrayOutputStream();
+                final byte[] buf = new byte[4096];
+                int read = zis.read(buf);
+                while(read > 0) {
+                    data.write(buf, 0, read);
+                    read = zis.read(buf);
+                }
+                final byte[] bytes = data.toByteArray();
+                final CRC32 crc = new CRC32();
+                crc.update(bytes);
+                final ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setMethod(ZipEntry.STORED);
+                copy.setSize(bytes.length);
+                copy.setCompressedSize(bytes.length);
+                copy.setCrc(crc.getValue());
+                copy.setTime(entry.getTime());
+                final byte[] extra = ZipUtils.fromExtraField(entry.getExtra());
+                if(extra != null) {
+                    Assert.assertArrayEquals(extra, ZipUtils.fromExtraField(extra));
+                    copy.setExtra(extra);
+                    ++unwrapped;
+                }
+                zos.putNextEntry(copy);
+                zos.write(bytes);
+                zos.closeEntry();
+                entry = zis.getNextEntry();
+            }
+        } finally {
+            IoUtils.safeClose(zis);
+            IoUtils.safeClose(zos);
+        }
+        Assert.assertTrue(unwrapped > 1);
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(legacyZip).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+
+        final File streamedNest = new File(testDir, "streamed-nest");
+        final FileInputStream nestStream = new FileInputStream(legacyZip);
+        try {
+            Nest.open(nestStream).expand(streamedNest);
+        } finally {
+            IoUtils.safeClose(nestStream);
+        }
+        expectedTree.assertMatches(streamedNest);
+    }
+}
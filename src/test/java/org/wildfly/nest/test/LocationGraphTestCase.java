@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class LocationGraphTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File homeDir = IoUtils.mkdir(testDir, "home");
+        final File aDir = IoUtils.mkdir(homeDir, "a");
+        final File aTestFile = Util.newFile(aDir, "aTestFile.txt");
+        final File bDir = IoUtils.mkdir(homeDir, "a", "b");
+        Util.newFile(bDir, "bTestFile.txt");
+
+        try {
+            Nest.create()
+                .nameSourceLocation("A", "B", "a")
+                .nameSourceLocation("B", "A", "b")
+                .addLocation("A")
+                .build(testDir, "cycle.zip");
+            Assert.fail("the cycle should have been detected");
+        } catch(NestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Cycle"));
+        }
+
+        try {
+            Nest.create()
+                .nameSourceLocation("A", "MISSING", "a")
+                .addLocation("A")
+                .build(testDir, "missing.zip");
+            Assert.fail("the missing location should have been detected");
+        } catch(NestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("MISSING"));
+        }
+
+        // the locations are defined before the locations they are relative to
+        final File nestZip = Nest.create()
+            .nameSourceLocation("B", "A", "b")
+            .nameSourceLocation("A", "HOME", "a")
+            .nameSourceLocation("HOME")
+            .nameNestLocation("NEST_B", "NEST_A", "etc")
+            .nameNestLocation("NEST_A", "base-a")
+            .add(aTestFile.getAbsolutePath()).underLocation("NEST_A")
+            .addLocation("B").underLocation("NEST_B")
+            .linkSourceLocation("HOME", homeDir.getAbsolutePath())
+            .build(testDir, "nest.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.newDir("base-a")
+            .add(aTestFile)
+            .newDir("etc").add(bDir);
+
+        assertZipContent(nestZip, expectedTree);
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(nestZip).expand(expandedNest);
+        expectedTree.assertMatches(expandedNest);
+    }
+}
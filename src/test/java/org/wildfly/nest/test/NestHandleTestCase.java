@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.expand.NestHandle;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class NestHandleTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        for(int i = 0; i < 10; ++i) {
+            final File dir = IoUtils.mkdir(aDir, "dir" + i);
+            for(int j = 0; j < 10; ++j) {
+                Util.newFile(dir, "file" + j + ".txt");
+            }
+        }
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-1")
+                .build(testDir, "nest.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+
+        final NestHandle nest = Nest.openHandle(nestZip);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<File>> results = new ArrayList<Future<File>>();
+            for(int i = 0; i < 8; ++i) {
+                final int tenant = i;
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        final File tenantDir = new File(testDir, "tenant" + tenant);
+                        nest.newExpandTask()
+                            .nameNestLocation("DIR", "nest_base/a/dir" + tenant + "/")
+                            .linkNestLocation("DIR").toPath("linked")
+                            .parallel(1 + tenant % 2)
+                            .expand(tenantDir);
+                        return tenantDir;
+                    }
+                }));
+            }
+            for(int i = 0; i < results.size(); ++i) {
+                final File tenantDir = results.get(i).get();
+                Assert.assertTrue(IoUtils.newFile(tenantDir, "linked", "file0.txt").isFile());
+                Assert.assertFalse(IoUtils.newFile(tenantDir, "nest_base", "a", "dir" + i).exists());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final File expanded = new File(testDir, "expanded");
+        nest.newExpandTask().expand(expanded);
+        expectedTree.assertMatches(expanded);
+        nest.close();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ParallelBuildTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        final File testFile = Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        for(int i = 0; i < 20; ++i) {
+            final File dir = IoUtils.mkdir(aDir, "dir" + i);
+            for(int j = 0; j < 10; ++j) {
+                Util.newFile(dir, "file" + j + ".txt");
+            }
+        }
+        IoUtils.mkdir(aDir, "empty");
+
+        // large enough for the compressed data not to be kept in memory
+        final byte[] bytes = new byte[3 << 20];
+        new Random(1).nextBytes(bytes);
+        final FileOutputStream fos = new FileOutputStream(new File(aDir, "large.bin"));
+        try {
+            fos.write(bytes);
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+
+        final File sequentialZip = Nest.create()
+                .add(testFile.getAbsolutePath())
+                .add(aDir.getAbsolutePath())
+                .build(testDir, "sequential.zip");
+
+        final File parallelZip = Nest.create()
+                .add(testFile.getAbsolutePath())
+                .add(aDir.getAbsolutePath())
+                .parallel(4)
+                .build(testDir, "parallel.zip");
+
+        Assert.assertArrayEquals(HashUtils.hashFile(sequentialZip), HashUtils.hashFile(parallelZip));
+        assertZipContent(parallelZip, NestDir.from(nestBase));
+
+        final File expandedNest = new File(testDir, "expanded-nest");
+        Nest.open(parallelZip).expand(expandedNest);
+        NestDir.from(nestBase).assertMatches(expandedNest);
+    }
+}
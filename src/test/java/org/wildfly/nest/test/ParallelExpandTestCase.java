@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ParallelExpandTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        for(int i = 0; i < 20; ++i) {
+            final File dir = IoUtils.mkdir(aDir, "dir" + i);
+            for(int j = 0; j < 10; ++j) {
+                Util.newFile(dir, "file" + j + ".txt");
+            }
+            IoUtils.mkdir(dir, "empty");
+        }
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .build(testDir, "nest.zip");
+
+        final File sequential = new File(testDir, "sequential");
+        Nest.open(nestZip)
+            .nameNestLocation("DIR_1", "nest_base/a/dir1/")
+            .linkNestLocation("DIR_1").toPath("linked/dir1")
+            .expand(sequential);
+
+        final File parallel = new File(testDir, "parallel");
+        Nest.open(nestZip)
+            .nameNestLocation("DIR_1", "nest_base/a/dir1/")
+            .linkNestLocation("DIR_1").toPath("linked/dir1")
+            .parallel(4)
+            .expand(parallel);
+
+        Assert.assertTrue(IoUtils.newFile(parallel, "linked", "dir1", "file0.txt").isFile());
+        NestDir.from(sequential).assertMatches(parallel);
+    }
+}
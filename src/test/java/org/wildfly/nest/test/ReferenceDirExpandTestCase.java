@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ReferenceDirExpandTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        final File unchanged = Util.newFile(nestBase, "unchanged.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        final File changed = Util.newFile(aDir, "changed.txt");
+        Util.newFile(aDir, "a1TestFile.txt");
+
+        final File previous = new File(testDir, "install-1");
+        Nest.open(Nest.create().add(nestBase.getAbsolutePath()).build(testDir, "nest-1.zip")).expand(previous);
+
+        write(changed, "changed content");
+        Util.newFile(aDir, "added.txt");
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-1")
+                .build(testDir, "nest-2.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+
+        final File next = new File(testDir, "install-2");
+        Nest.open(nestZip).linkFrom(previous).parallel(2).expand(next);
+        expectedTree.assertMatches(next);
+        Assert.assertTrue(Files.isSameFile(
+                IoUtils.newFile(previous, "nest_base", unchanged.getName()).toPath(),
+                IoUtils.newFile(next, "nest_base", unchanged.getName()).toPath()));
+        final File previousChanged = IoUtils.newFile(previous, "nest_base", "a", changed.getName());
+        Assert.assertFalse(Files.isSameFile(previousChanged.toPath(), IoUtils.newFile(next, "nest_base", "a", changed.getName()).toPath()));
+        Assert.assertFalse("changed content".equals(new String(Files.readAllBytes(previousChanged.toPath()))));
+
+        final File streamed = new File(testDir, "install-3");
+        final InputStream is = new FileInputStream(nestZip);
+        try {
+            Nest.open(is).linkFrom(previous).expand(streamed);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        expectedTree.assertMatches(streamed);
+        Assert.assertTrue(Files.isSameFile(
+                IoUtils.newFile(previous, "nest_base", unchanged.getName()).toPath(),
+                IoUtils.newFile(streamed, "nest_base", unchanged.getName()).toPath()));
+
+        // syncing the expansions linked to the previous one must not modify the previous one
+        final File previousUnchanged = IoUtils.newFile(previous, "nest_base", unchanged.getName());
+        final NestDir previousTree = NestDir.from(previous);
+        write(unchanged, "changed on sync");
+        final File syncedZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .build(testDir, "nest-3.zip");
+        final NestDir syncedTree = NestDir.root();
+        syncedTree.add(nestBase);
+
+        Nest.open(syncedZip).sync().parallel(2).expand(next);
+        syncedTree.assertMatches(next);
+        final InputStream syncIs = new FileInputStream(syncedZip);
+        try {
+            Nest.open(syncIs).sync().expand(streamed);
+        } finally {
+            IoUtils.safeClose(syncIs);
+        }
+        syncedTree.assertMatches(streamed);
+
+        previousTree.assertMatches(previous);
+        Assert.assertFalse("changed on sync".equals(new String(Files.readAllBytes(previousUnchanged.toPath()))));
+        Assert.assertFalse(Files.isSameFile(previousUnchanged.toPath(), IoUtils.newFile(next, "nest_base", unchanged.getName()).toPath()));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes());
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+    }
+}
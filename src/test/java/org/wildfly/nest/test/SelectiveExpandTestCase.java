@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class SelectiveExpandTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "readme.txt");
+        final File modules = IoUtils.mkdir(nestBase, "modules");
+        final File moduleA = IoUtils.mkdir(modules, "a");
+        Util.newFile(moduleA, "module.xml");
+        Util.newFile(moduleA, "a.properties");
+        final File moduleB = IoUtils.mkdir(modules, "b");
+        Util.newFile(moduleB, "module.xml");
+        final File docs = IoUtils.mkdir(nestBase, "docs");
+        Util.newFile(docs, "index.html");
+        Util.newFile(docs, "docs.properties");
+        final File doc = IoUtils.mkdir(nestBase, "doc");
+        Util.newFile(doc, "doc.txt");
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .build(testDir, "nest.zip");
+
+        // a named location
+        final File modulesOnly = new File(testDir, "modules-only");
+        Nest.open(nestZip)
+            .nameNestLocation("MODULES", "nest_base/modules/")
+            .includeLocation("MODULES")
+            .expand(modulesOnly);
+        NestDir expectedTree = NestDir.root();
+        expectedTree.newDir("nest_base").add(modules);
+        expectedTree.assertMatches(modulesOnly);
+
+        // a path which is a prefix of another directory name and a glob
+        expectedTree = NestDir.root();
+        final NestDir expectedBase = expectedTree.newDir("nest_base");
+        expectedBase.add(doc);
+        expectedBase.newDir("modules", "a").add(new File(moduleA, "a.properties"));
+        expectedBase.newDir("docs").add(new File(docs, "docs.properties"));
+
+        final File fromFile = new File(testDir, "from-file");
+        Nest.open(nestZip)
+            .includePath("nest_base/doc")
+            .includeGlob("nest_base/**.properties")
+            .parallel(2)
+            .expand(fromFile);
+        expectedTree.assertMatches(fromFile);
+
+        final File fromStream = new File(testDir, "from-stream");
+        final InputStream is = new FileInputStream(nestZip);
+        try {
+            Nest.open(is)
+                .includePath("nest_base/doc/")
+                .includeGlob("nest_base/**.properties")
+                .expand(fromStream);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        expectedTree.assertMatches(fromStream);
+
+        // syncing a part of the nest leaves the rest of the base directory as it is
+        Util.newFile(modulesOnly, "unrelated.txt");
+        final File extraneous = Util.newFile(IoUtils.newFile(modulesOnly, "nest_base", "modules", "a"), "extraneous.txt");
+        Nest.open(nestZip)
+            .includePath("nest_base/modules/")
+            .sync(true)
+            .expand(modulesOnly);
+        Assert.assertTrue(new File(modulesOnly, "unrelated.txt").exists());
+        Assert.assertFalse(extraneous.exists());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.HashUtils;
+import org.wildfly.nest.util.IoUtils;
+
+
+/**
+ * The directories of the sources that can't be walked fail the build
+ * instead of being added as empty or partially.
+ *
+ * @author Alexey Loubyansky
+ */
+public class SourceWalkFailuresTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File loopDir = IoUtils.mkdir(testDir, "loop");
+        Util.newFile(loopDir, "loopTestFile.txt");
+        final Path link = new File(loopDir, "parent").toPath();
+        try {
+            Files.createSymbolicLink(link, loopDir.toPath());
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        } catch (IOException e) {
+            Assume.assumeNoException(e);
+        }
+        try {
+            assertBuildFails(loopDir, "loop.zip");
+            assertHashFails(loopDir);
+        } finally {
+            // the clean up follows the links
+            Files.delete(link);
+        }
+
+        final File lockedParent = IoUtils.mkdir(testDir, "locked_parent");
+        final File lockedDir = IoUtils.mkdir(lockedParent, "locked");
+        Util.newFile(lockedDir, "lockedTestFile.txt");
+        lockedDir.setReadable(false);
+        try {
+            // the permissions don't apply to the superuser
+            Assume.assumeFalse(lockedDir.canRead());
+            assertBuildFails(lockedParent, "locked.zip");
+            assertHashFails(lockedParent);
+        } finally {
+            lockedDir.setReadable(true);
+        }
+    }
+
+    private void assertBuildFails(File dir, String nestName) {
+        try {
+            Nest.create().add(dir.getAbsolutePath()).build(testDir, nestName);
+            Assert.fail("The build of " + dir.getName() + " should have failed");
+        } catch (NestException e) {
+            // expected
+        }
+    }
+
+    private static void assertHashFails(File dir) {
+        try {
+            HashUtils.hashFile(dir);
+            Assert.fail("Hashing " + dir.getName() + " should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestTraceListener;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.expand.NestExpandTask;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+import org.wildfly.nest.zip.AttachmentEntryWriter;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class StreamingAttachmentsTestCase extends NestBuildTestBase {
+
+    private static final String LOCATION = "NEST_LOCATION_WITH_A_RATHER_LONG_NAME_";
+    private static final int LOCATIONS = 2000;
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File aDir = IoUtils.mkdir(testDir, "a");
+        final File aTestFile = Util.newFile(aDir, "aTestFile.txt");
+        final File bDir = IoUtils.mkdir(testDir, "b");
+        Util.newFile(bDir, "bTestFile.txt");
+        Util.newFile(bDir, "b2TestFile.txt");
+        final File cTestFile = Util.newFile(testDir, "cTestFile.txt");
+
+        // the path of the location is too long for the extra fields of the entries under it
+        final StringBuilder deepPath = new StringBuilder();
+        while(deepPath.length() <= AttachmentEntryWriter.INLINE_LIMIT) {
+            deepPath.append("dddddddddd/");
+        }
+        final File deepNest = Nest.create()
+            .nameNestLocation("DEEP", deepPath.toString())
+            .add(bDir.getAbsolutePath()).underLocation("DEEP")
+            .add(aTestFile.getAbsolutePath()).underLocation("DEEP")
+            .add(cTestFile.getAbsolutePath())
+            .build(testDir, "deep.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(cTestFile).newDir("deep").add(bDir).add(aTestFile);
+
+        final List<String> paths = new ArrayList<String>();
+        final File fromStream = new File(testDir, "from-stream");
+        expandStream(deepNest, deepPath.toString(), false, paths, fromStream);
+        expectedTree.assertMatches(fromStream);
+        Assert.assertEquals(2, Collections.frequency(paths, deepPath.toString()));
+
+        // the files are up to date, so their data is skipped before the attachment entries are read
+        paths.clear();
+        expandStream(deepNest, deepPath.toString(), true, paths, fromStream);
+        expectedTree.assertMatches(fromStream);
+        Assert.assertEquals(2, Collections.frequency(paths, deepPath.toString()));
+
+        final File fromFile = new File(testDir, "from-file");
+        final NestExpandTask fileTask = Nest.open(deepNest);
+        fileTask.nameNestLocation("DEEP", deepPath.toString()).linkNestLocation("DEEP").toPath("deep");
+        fileTask.expand(fromFile);
+        expectedTree.assertMatches(fromFile);
+
+        // the root attachments are stored in metadata entries read ahead of the first content entry,
+        // which is not selected, and the trailer
+        final NestBuildTask task = Nest.create().contentManifest("SHA-256");
+        for(int i = 0; i < LOCATIONS; ++i) {
+            task.nameNestLocation(LOCATION + i, "location" + i);
+        }
+        final File nestZip = task.add(aTestFile.getAbsolutePath()).underLocation(LOCATION + 0)
+            .add(cTestFile.getAbsolutePath()).underLocation(LOCATION + (LOCATIONS - 1))
+            .build(testDir, "nest.zip");
+
+        final File selected = new File(testDir, "selected");
+        final InputStream is = new FileInputStream(nestZip);
+        try {
+            Nest.open(is).includePath("location" + (LOCATIONS - 1) + '/').verifyContent(true).expand(selected);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        final NestDir selectedTree = NestDir.root();
+        selectedTree.newDir("location" + (LOCATIONS - 1)).add(cTestFile);
+        selectedTree.assertMatches(selected);
+    }
+
+    private static void expandStream(File nestZip, String deepPath, boolean sync, List<String> paths, File target) throws Exception {
+        final InputStream is = new FileInputStream(nestZip);
+        try {
+            final NestExpandTask task = Nest.open(is);
+            if(sync) {
+                task.sync();
+            }
+            task.nameNestLocation("DEEP", deepPath).linkNestLocation("DEEP").toPath("deep");
+            task.trace(new Recorder(paths)).expand(target);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+    }
+
+    private static class Recorder implements NestTraceListener {
+
+        private final List<String> paths;
+
+        Recorder(List<String> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public void trace(String source, String event, Object subject) {
+            if("ENTRY_LOCATIONS".equals(source) && "read location path".equals(event)) {
+                paths.add((String) subject);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class StreamingBuildTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        Util.newFile(aDir, "a1TestFile.txt");
+        final File bDir = IoUtils.mkdir(aDir, "b");
+        Util.newFile(bDir, "b1TestFile.txt");
+        IoUtils.mkdir(bDir, "empty");
+
+        final NestBuildTask task = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .contentManifest("SHA-1");
+        final File nestZip = task.build(testDir, "nest.zip");
+
+        final TrackedOutputStream out = new TrackedOutputStream();
+        task.build(out);
+        Assert.assertFalse("the stream should be left open", out.closed);
+        Assert.assertArrayEquals(Files.readAllBytes(nestZip.toPath()), out.toByteArray());
+
+        final ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        task.parallel(2).build(Channels.newChannel(channelOut));
+        Assert.assertArrayEquals(out.toByteArray(), channelOut.toByteArray());
+
+        final File expandDir = new File(testDir, "expanded");
+        Nest.open(new ByteArrayInputStream(channelOut.toByteArray())).expand(expandDir);
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+        expectedTree.assertMatches(expandDir);
+    }
+
+    private static class TrackedOutputStream extends ByteArrayOutputStream {
+
+        boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
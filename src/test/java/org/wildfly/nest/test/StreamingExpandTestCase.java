@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.CompressionPolicy;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class StreamingExpandTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        Util.newFile(aDir, "a1TestFile.txt");
+        final File bDir = IoUtils.mkdir(aDir, "b");
+        Util.newFile(bDir, "b1TestFile.txt");
+        IoUtils.mkdir(bDir, "empty");
+
+        final byte[] bytes = new byte[4096];
+        new Random(1).nextBytes(bytes);
+        final FileOutputStream fos = new FileOutputStream(new File(bDir, "random.bin"));
+        try {
+            fos.write(bytes);
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .compression(CompressionPolicy.storeExtensions("bin"))
+                .contentManifest("SHA-256")
+                .build(testDir, "nest.zip");
+
+        final File fromFile = new File(testDir, "from-file");
+        Nest.open(nestZip)
+            .nameNestLocation("B", "nest_base/a/b/")
+            .linkNestLocation("B").toPath("linked/b")
+            .expand(fromFile);
+        Assert.assertTrue(IoUtils.newFile(fromFile, "linked", "b", "random.bin").isFile());
+
+        final File fromStream = new File(testDir, "from-stream");
+        final InputStream is = new FileInputStream(nestZip);
+        try {
+            Nest.open(is)
+                .nameNestLocation("B", "nest_base/a/b/")
+                .linkNestLocation("B").toPath("linked/b")
+                .parallel(2)
+                .expand(fromStream);
+        } finally {
+            IoUtils.safeClose(is);
+        }
+        NestDir.from(fromFile).assertMatches(fromStream);
+
+        final File fromChannel = new File(testDir, "from-channel");
+        final byte[] nestBytes = Files.readAllBytes(nestZip.toPath());
+        Nest.open(Channels.newChannel(new ByteArrayInputStream(nestBytes))).expand(fromChannel);
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+        expectedTree.assertMatches(fromChannel);
+
+        // corrupt the stored random file
+        final int i = indexOf(nestBytes, bytes, 1024, 64);
+        Assert.assertTrue(i > 0);
+        nestBytes[i] = (byte) ~nestBytes[i];
+        try {
+            Nest.open(new ByteArrayInputStream(nestBytes)).expand(new File(testDir, "corrupted"));
+            Assert.fail("the corrupted entry should not be expanded");
+        } catch(NestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("random.bin"));
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int offset, int length) {
+        for(int i = 0; i <= bytes.length - length; ++i) {
+            int j = 0;
+            while(j < length && bytes[i + j] == pattern[offset + j]) {
+                ++j;
+            }
+            if(j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
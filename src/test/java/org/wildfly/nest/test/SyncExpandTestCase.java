@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class SyncExpandTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File nestBase = IoUtils.mkdir(testDir, "nest_base");
+        Util.newFile(nestBase, "test.txt");
+        final File aDir = IoUtils.mkdir(nestBase, "a");
+        Util.newFile(aDir, "a1TestFile.txt");
+        final File bDir = IoUtils.mkdir(aDir, "b");
+        Util.newFile(bDir, "b1TestFile.txt");
+
+        final File nestZip = Nest.create()
+                .add(nestBase.getAbsolutePath())
+                .build(testDir, "nest.zip");
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.add(nestBase);
+
+        final File expanded = new File(testDir, "expanded");
+        Nest.open(nestZip).expand(expanded);
+        expectedTree.assertMatches(expanded);
+
+        // an unchanged file keeps its modification time if it is skipped
+        final File unchanged = IoUtils.newFile(expanded, "nest_base", "test.txt");
+        unchanged.setLastModified(1000000000000L);
+        final File changed = IoUtils.newFile(expanded, "nest_base", "a", "b", "b1TestFile.txt");
+        write(changed, "changed");
+        final File extraFile = Util.newFile(IoUtils.newFile(expanded, "nest_base", "a"), "extra.txt");
+        final File extraDir = IoUtils.mkdir(expanded, "nest_base", "a", "b", "extra");
+        Util.newFile(extraDir, "extra.txt");
+
+        Nest.open(nestZip).sync().expand(expanded);
+        Assert.assertEquals(1000000000000L, unchanged.lastModified());
+        Assert.assertTrue(extraFile.exists());
+        Assert.assertTrue(extraDir.exists());
+
+        write(changed, "changed");
+        Nest.open(nestZip).parallel(2).sync(true).expand(expanded);
+        Assert.assertEquals(1000000000000L, unchanged.lastModified());
+        expectedTree.assertMatches(expanded);
+    }
+
+    private static void write(File f, String content) throws IOException {
+        final FileOutputStream fos = new FileOutputStream(f);
+        try {
+            fos.write(content.getBytes());
+        } finally {
+            IoUtils.safeClose(fos);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.wildfly.nest.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wildfly.nest.Nest;
+import org.wildfly.nest.NestTraceListener;
+import org.wildfly.nest.test.util.NestDir;
+import org.wildfly.nest.test.util.Util;
+import org.wildfly.nest.util.IoUtils;
+
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class TraceTestCase extends NestBuildTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        final File aDir = IoUtils.mkdir(testDir, "a");
+        final File aTestFile = Util.newFile(aDir, "aTestFile.txt");
+        final File bDir = IoUtils.mkdir(testDir, "b");
+        Util.newFile(bDir, "bTestFile.txt");
+
+        final PrintStream stdout = System.out;
+        final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        final File nestZip;
+        final File expandedNest = new File(testDir, "expanded-nest");
+        final List<String> buildEvents = new ArrayList<String>();
+        final List<String> expandEvents = new ArrayList<String>();
+        System.setOut(new PrintStream(printed));
+        try {
+            // not traced
+            Nest.open(Nest.create()
+                    .nameNestLocation("NEST_A", "base-a")
+                    .add(aTestFile.getAbsolutePath()).underLocation("NEST_A")
+                    .build(testDir, "untraced.zip"))
+                .expand(new File(testDir, "untraced"));
+
+            nestZip = Nest.create()
+                .nameNestLocation("NEST_A", "base-a")
+                .nameNestLocation("NEST_B", "NEST_A", "etc")
+                .add(aTestFile.getAbsolutePath()).underLocation("NEST_A")
+                .add(bDir.getAbsolutePath()).underLocation("NEST_B")
+                .trace(new Recorder(buildEvents))
+                .build(testDir, "nest.zip");
+
+            Nest.open(nestZip).trace(new Recorder(expandEvents)).expand(expandedNest);
+        } finally {
+            System.setOut(stdout);
+        }
+        Assert.assertEquals("", printed.toString());
+
+        Assert.assertEquals("builder build " + nestZip, buildEvents.get(0));
+        Assert.assertEquals("builder built " + nestZip, buildEvents.get(buildEvents.size() - 1));
+        Assert.assertTrue(buildEvents.toString(), buildEvents.contains("builder entry NEST_B=$NEST_A/etc"));
+        Assert.assertTrue(buildEvents.toString(), buildEvents.contains("NEST_LOCATIONS write location relative-to NEST_A"));
+        Assert.assertTrue(buildEvents.toString(), buildEvents.contains("ENTRY_LOCATIONS write location name NEST_B"));
+
+        Assert.assertEquals("expander expand " + expandedNest, expandEvents.get(0));
+        Assert.assertEquals("expander expanded " + expandedNest, expandEvents.get(expandEvents.size() - 1));
+        Assert.assertTrue(expandEvents.toString(), expandEvents.contains("NEST_LOCATIONS read location name NEST_B"));
+        Assert.assertTrue(expandEvents.toString(), expandEvents.contains("ENTRY_LOCATIONS read location name NEST_B"));
+
+        final NestDir expectedTree = NestDir.root();
+        expectedTree.newDir("base-a")
+            .add(aTestFile)
+            .newDir("etc").add(bDir);
+        expectedTree.assertMatches(expandedNest);
+    }
+
+    private static class Recorder implements NestTraceListener {
+
+        private final List<String> events;
+
+        Recorder(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void trace(String source, String event, Object subject) {
+            events.add(source + ' ' + event + ' ' + subject);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.wildfly.nest.test.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.wildfly.nest.NestException;
+import org.wildfly.nest.build.NestBuildTask;
+import org.wildfly.nest.util.IoUtils;
+
+/**
+ * Generates a tree shaped like an application server distribution:
+ * scripts and docs, configuration directories with XML and properties
+ * files and a large number of module directories each with a module.xml,
+ * a few small resources and jar-like incompressible blobs, a few of which
+ * are large. A share of the blobs are copies of other blobs.
+ *
+ * <p>Everything is derived from the seed, so the same seed and settings
+ * always produce the same tree, byte for byte.
+ *
+ * @author Alexey Loubyansky
+ */
+public class DistributionCorpus {
+
+    public static final String HOME = "JBOSS_HOME";
+    public static final String MODULES = "MODULES";
+    public static final String NEST_MODULES = "NEST_MODULES";
+
+    static final String MODULES_PATH = "modules/system/layers/base";
+
+    private static final String[] NAMESPACES = {"org", "com", "io", "net", "javax", "jakarta"};
+    private static final String[] VENDORS = {"jboss", "wildfly", "apache", "hibernate", "eclipse", "glassfish",
+        "infinispan", "jgroups", "netty", "undertow", "picketbox", "codehaus", "slf4j", "ironjacamar", "reactivex", "fasterxml"};
+    private static final String[] SYLLABLES = {"core", "api", "impl", "spi", "common", "client", "server", "xml", "json",
+        "transaction", "security", "logging", "remoting", "naming", "web", "ejb", "jms", "jpa", "cdi", "rest", "mail",
+        "batch", "cache", "cluster", "metrics", "health", "config", "jaxb", "ws", "jsf", "validator", "modules"};
+    private static final String[] WORDS = {"<module", "xmlns=\"urn:jboss:module:1.9\"", "name=", "<resources>",
+        "<resource-root", "path=", "/>", "</resources>", "<dependencies>", "<module", "optional=\"true\"",
+        "export=\"true\"", "services=\"import\"", "</dependencies>", "</module>", "<property", "value=", "\n", "    ",
+        "org.jboss.as", "javax.api", "key", "=", "true", "false", "#", "version", "1.0.0.Final"};
+
+    /**
+     * Creates a generator with the default settings: 2000 modules with two
+     * small resources each, four 8 MB blobs and every tenth blob being
+     * a copy of another blob.
+     *
+     * @param seed  the seed the content is derived from
+     * @return  the generator
+     */
+    public static DistributionCorpus seed(long seed) {
+        return new DistributionCorpus(seed);
+    }
+
+    private final long seed;
+    private int modules = 2000;
+    private int resourcesPerModule = 2;
+    private int largeFiles = 4;
+    private int largeFileSize = 8 << 20;
+    private int maxBlobSize = 256 << 10;
+    private double duplicateRatio = 0.1;
+
+    /** the seeds and sizes of the blobs generated so far */
+    private final List<long[]> blobs = new ArrayList<long[]>();
+    private final Set<String> topLevel = new LinkedHashSet<String>();
+    private final Set<String> moduleGroups = new LinkedHashSet<String>();
+    private Random random;
+    private int files;
+    private int dirs;
+    private long bytes;
+    private int duplicates;
+
+    private DistributionCorpus(long seed) {
+        this.seed = seed;
+    }
+
+    public DistributionCorpus modules(int modules) {
+        this.modules = modules;
+        return this;
+    }
+
+    public DistributionCorpus resourcesPerModule(int resources) {
+        this.resourcesPerModule = resources;
+        return this;
+    }
+
+    public DistributionCorpus largeFiles(int largeFiles, int size) {
+        this.largeFiles = largeFiles;
+        this.largeFileSize = size;
+        return this;
+    }
+
+    public DistributionCorpus maxBlobSize(int size) {
+        this.maxBlobSize = size;
+        return this;
+    }
+
+    public DistributionCorpus duplicateRatio(double ratio) {
+        if(ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("ratio must be between 0 and 1");
+        }
+        this.duplicateRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Generates the tree in the directory.
+     *
+     * @param dir  the directory to generate the tree in
+     * @return  this corpus
+     * @throws IOException  in case of a failure
+     */
+    public DistributionCorpus generate(File dir) throws IOException {
+        random = new Random(seed);
+        blobs.clear();
+        topLevel.clear();
+        moduleGroups.clear();
+        files = 0;
+        dirs = 0;
+        bytes = 0;
+        duplicates = 0;
+
+        final File bin = mkdir(dir, "bin");
+        for(String script : new String[]{"standalone", "domain", "jboss-cli", "add-user", "appclient", "vault"}) {
+            writeText(new File(bin, script + ".sh"), 512 + random.nextInt(8192));
+            writeText(new File(bin, script + ".bat"), 512 + random.nextInt(8192));
+            writeText(new File(bin, script + ".conf"), 256 + random.nextInt(2048));
+        }
+        final File licenses = mkdir(dir, "docs", "licenses");
+        for(int i = 0; i < 60; ++i) {
+            writeText(new File(licenses, "license-" + i + ".txt"), 1024 + random.nextInt(16384));
+        }
+        for(String mode : new String[]{"standalone", "domain", "appclient"}) {
+            final File config = mkdir(dir, mode, "configuration");
+            for(String name : new String[]{mode, mode + "-ha", mode + "-full", mode + "-full-ha"}) {
+                writeText(new File(config, name + ".xml"), 16384 + random.nextInt(65536));
+            }
+            for(String name : new String[]{"logging", "mgmt-users", "mgmt-groups", "application-users", "application-roles"}) {
+                writeText(new File(config, name + ".properties"), 128 + random.nextInt(2048));
+            }
+            mkdir(dir, mode, "deployments");
+        }
+        writeBlob(new File(dir, "jboss-modules.jar"), 400 << 10);
+        writeText(new File(dir, "README.txt"), 2048);
+        writeText(new File(dir, "version.txt"), 64);
+
+        final File base = mkdir(dir, MODULES_PATH.split("/"));
+        final Set<String> names = new HashSet<String>();
+        final int[] large = new int[largeFiles];
+        for(int i = 0; i < largeFiles; ++i) {
+            large[i] = modules == 0 ? -1 : random.nextInt(modules);
+        }
+        for(int m = 0; m < modules; ++m) {
+            final String namespace = NAMESPACES[random.nextInt(NAMESPACES.length)];
+            final String vendor = VENDORS[random.nextInt(VENDORS.length)];
+            String name = SYLLABLES[random.nextInt(SYLLABLES.length)] + "-" + SYLLABLES[random.nextInt(SYLLABLES.length)];
+            if(!names.add(namespace + '/' + vendor + '/' + name)) {
+                name = name + "-" + m;
+                names.add(namespace + '/' + vendor + '/' + name);
+            }
+            moduleGroups.add(namespace + '/' + vendor);
+
+            final File module = mkdir(base, namespace, vendor, name, "main");
+            writeText(new File(module, "module.xml"), 300 + random.nextInt(1500));
+            for(int r = 0; r < resourcesPerModule; ++r) {
+                writeText(new File(module, random.nextBoolean() ? "resource" + r + ".properties" : "resource" + r + ".xml"), 64 + random.nextInt(4096));
+            }
+            final int jars = 1 + random.nextInt(3);
+            for(int j = 0; j < jars; ++j) {
+                writeBlob(new File(module, name + "-" + j + ".jar"), blobSize());
+            }
+            for(int i = 0; i < largeFiles; ++i) {
+                if(large[i] == m) {
+                    writeBlob(new File(module, name + "-large" + i + ".jar"), largeFileSize);
+                }
+            }
+        }
+
+        final String[] children = dir.list();
+        Arrays.sort(children);
+        for(String child : children) {
+            topLevel.add(child);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the generated tree to the build task defining the locations
+     * a distribution would be described with: the home directory, the base
+     * layer of the modules and a source and a nest location for every group
+     * of modules of the same vendor. The tree is added to the nest
+     * at the same paths it has in the directory.
+     *
+     * @param task  build task
+     * @param dir  the directory the tree was generated in
+     * @return  the build task
+     * @throws NestException  in case of a failure
+     */
+    public NestBuildTask addTo(NestBuildTask task, File dir) throws NestException {
+        task.nameSourceLocation(HOME)
+            .nameSourceLocation(MODULES, HOME, MODULES_PATH)
+            .nameNestLocation(NEST_MODULES, MODULES_PATH);
+        for(String child : topLevel) {
+            if(!child.equals("modules")) {
+                task.addLocation(HOME, child);
+            }
+        }
+        for(String group : moduleGroups) {
+            final String namespace = group.substring(0, group.indexOf('/'));
+            final String name = group.replace('/', '_').toUpperCase();
+            task.nameSourceLocation(name, MODULES, group)
+                .nameNestLocation("NEST_" + name, NEST_MODULES, namespace)
+                .addLocation(name).underLocation("NEST_" + name);
+        }
+        return task.linkSourceLocation(HOME, dir.getAbsolutePath());
+    }
+
+    /**
+     * @return  the names of the source locations of the groups of modules
+     */
+    public List<String> getModuleGroupLocations() {
+        final List<String> names = new ArrayList<String>(moduleGroups.size());
+        for(String group : moduleGroups) {
+            names.add(group.replace('/', '_').toUpperCase());
+        }
+        return names;
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    public int getDirs() {
+        return dirs;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Most jars are small, a few are close to the maximum size.
+     */
+    private int blobSize() {
+        final double r = random.nextDouble();
+        return 1024 + (int) (r * r * r * (maxBlobSize - 1024));
+    }
+
+    private File mkdir(File parent, String... segments) throws IOException {
+        File dir = parent;
+        for(String segment : segments) {
+            dir = new File(dir, segment);
+            if(dir.mkdir()) {
+                ++dirs;
+            } else if(!dir.isDirectory()) {
+                throw new IOException("Failed to create directory " + dir.getAbsolutePath());
+            }
+        }
+        return dir;
+    }
+
+    private void writeText(File file, int size) throws IOException {
+        final StringBuilder text = new StringBuilder(size + 32);
+        while(text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(size);
+        write(file, text.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Writes incompressible content, which, at the duplicate ratio, is
+     * a copy of one of the blobs written before.
+     */
+    private void writeBlob(File file, int size) throws IOException {
+        long[] blob;
+        if(!blobs.isEmpty() && random.nextDouble() < duplicateRatio) {
+            blob = blobs.get(random.nextInt(blobs.size()));
+            ++duplicates;
+        } else {
+            blob = new long[]{random.nextLong(), size};
+            blobs.add(blob);
+        }
+        final byte[] content = new byte[(int) blob[1]];
+        new Random(blob[0]).nextBytes(content);
+        write(file, content);
+    }
+
+    private void write(File file, byte[] content) throws IOException {
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+            os.close();
+        } finally {
+            IoUtils.safeClose(os);
+        }
+        ++files;
+        bytes += content.length;
+    }
+}